@@ -0,0 +1,312 @@
+/**
+ * Assembler
+ * Assembles Hack-Assembly held in memory, for use inside other programs
+ *
+ * Nothing is written to files and errors are returned instead of exiting.
+ * An instance keeps its buffers between calls, so assembling many programs
+ * with one instance does not allocate much. Calls on the same instance are
+ * serialized, use one instance per thread to assemble in parallel.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.2
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+public class Assembler {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Only read, safe to share between threads
+	private static final SymbolTable PREDEFINED = new SymbolTable();
+
+	private SymbolTable symbolTable;
+	private boolean relocatable;
+
+	private short[] words;
+	private int wordCount;
+
+	// A-Instructions whose symbol is resolved at the end
+	private int[] fixupIndices;
+	private String[] fixupSymbols;
+	private int fixupCount;
+
+	// Labels in order of definition
+	private ArrayList<String> labels;
+
+	private ArrayList<AssemblyError> errors;
+
+
+	/**
+	 * Constructor
+	 */
+	public Assembler() {
+		reset();
+	}
+
+
+	/**
+	 * Assemble a program
+	 * @param source The .asm source
+	 * @return The program or the errors
+	 */
+	public synchronized AssemblyResult assemble(CharSequence source) {
+		return assemble(new Lexer(source), false);
+	}
+
+
+	/**
+	 * Assemble a program, the position of the buffer is not changed
+	 * @param source The remaining bytes hold the .asm source
+	 * @return The program or the errors
+	 */
+	public synchronized AssemblyResult assemble(ByteBuffer source) {
+		return assemble(new Lexer(source.duplicate()), false);
+	}
+
+
+	/**
+	 * Assemble a relocatable object, to be combined by the Linker
+	 * @param source The .asm source
+	 * @return The object or the errors
+	 */
+	public synchronized AssemblyResult assembleObject(CharSequence source) {
+		return assemble(new Lexer(source), true);
+	}
+
+
+	/**
+	 * Assemble a relocatable object, the position of the buffer is not changed
+	 * @param source The remaining bytes hold the .asm source
+	 * @return The object or the errors
+	 */
+	public synchronized AssemblyResult assembleObject(ByteBuffer source) {
+		return assemble(new Lexer(source.duplicate()), true);
+	}
+
+
+	/**
+	 * Forget all symbols and release buffers grown by large programs
+	 */
+	public synchronized void reset() {
+		symbolTable = new SymbolTable();
+
+		words = new short[INITIAL_CAPACITY];
+		wordCount = 0;
+
+		fixupIndices = new int[INITIAL_CAPACITY];
+		fixupSymbols = new String[INITIAL_CAPACITY];
+		fixupCount = 0;
+
+		labels = new ArrayList<>();
+		errors = new ArrayList<>();
+	}
+
+
+	/**
+	 * Assemble in a single pass, symbols not known yet are fixed up at the end
+	 * @param lexer Lexer over the source
+	 * @param relocatable Create an object instead of a program
+	 * @return The program, the object or the errors
+	 */
+	private AssemblyResult assemble(Lexer lexer, boolean relocatable) {
+		// Keep the buffers, but start with a fresh program
+		this.relocatable = relocatable;
+		symbolTable = new SymbolTable();
+		Arrays.fill(fixupSymbols, 0, fixupCount, null);
+		wordCount = 0;
+		fixupCount = 0;
+		labels = new ArrayList<>();
+		errors = new ArrayList<>();
+
+		try {
+			while (lexer.advance()) {
+				if (lexer.commandType() == Token.CommandType.LABEL) addLabel(lexer);
+				else if (lexer.commandType() == Token.CommandType.A_INSTRUCTION) addAInstruction(lexer);
+				else addCInstruction(lexer);
+			}
+		}
+		catch (IOException e) { throw new UncheckedIOException(e); }
+
+		if (!errors.isEmpty()) return new AssemblyResult(new short[0], errors);
+		if (relocatable) {
+			ObjectFile objectFile = createObject();
+			if (!errors.isEmpty()) return new AssemblyResult(new short[0], errors);
+			return new AssemblyResult(objectFile, errors);
+		}
+
+		// Labels are all known now, every other symbol is a variable
+		int ramVariableIndex = 16;
+		for (int i = 0; i < fixupCount; i++) {
+			int value = symbolTable.getSymbolValue(fixupSymbols[i]);
+			if (value == -1) {
+				value = ramVariableIndex++;
+				symbolTable.addSymbol(fixupSymbols[i], value);
+			}
+			words[fixupIndices[i]] = (short) encodeA(fixupSymbols[i], value);
+		}
+
+		if (!errors.isEmpty()) return new AssemblyResult(new short[0], errors);
+		return new AssemblyResult(Arrays.copyOf(words, wordCount), errors);
+	}
+
+
+	/**
+	 * Create an object from the words and fixups,
+	 * fixups of local labels become local relocations, all others imports
+	 */
+	private ObjectFile createObject() {
+		ObjectFile objectFile = new ObjectFile(Arrays.copyOf(words, wordCount));
+
+		for (int i = 0; i < fixupCount; i++) {
+			int value = symbolTable.getSymbolValue(fixupSymbols[i]);
+			if (value != -1) {
+				objectFile.getWords()[fixupIndices[i]] = (short) encodeA(fixupSymbols[i], value);
+				objectFile.addRelocation(fixupIndices[i], ObjectFile.RELOCATION_LOCAL, fixupSymbols[i]);
+			}
+			else objectFile.addRelocation(fixupIndices[i], ObjectFile.RELOCATION_IMPORT, fixupSymbols[i]);
+		}
+
+		for (String label : labels) objectFile.addExport(label, symbolTable.getSymbolValue(label));
+
+		return objectFile;
+	}
+
+
+	/**
+	 * Add a label pointing to the next instruction
+	 */
+	private void addLabel(Lexer lexer) {
+		if (lexer.charAt(lexer.length() - 1) != ')') {
+			addError(lexer, "Label is missing )");
+			return;
+		}
+		if (!isSymbol(lexer, lexer.symbolStart(), lexer.symbolEnd())) {
+			addError(lexer, "Invalid label");
+			return;
+		}
+		if (symbolTable.getSymbolValue(lexer, lexer.symbolStart(), lexer.symbolEnd()) != -1) {
+			addError(lexer, "Label is already defined");
+			return;
+		}
+
+		String label = lexer.symbol();
+		symbolTable.addSymbol(label, wordCount);
+		labels.add(label);
+	}
+
+
+	/**
+	 * Add an A-Instruction with a constant or a symbol
+	 */
+	private void addAInstruction(Lexer lexer) {
+		int start = lexer.symbolStart();
+		int end = lexer.symbolEnd();
+
+		if (lexer.isConstant()) {
+			int value = lexer.constant();
+			if (value == Code.INVALID) {
+				addError(lexer, "Constant out of range");
+				value = 0;
+			}
+			addWord(Code.encodeA(value));
+			return;
+		}
+		if (!isSymbol(lexer, start, end)) {
+			addError(lexer, "Invalid symbol");
+			addWord(0);
+			return;
+		}
+
+		// Labels of an object are relocated, so they are fixed up as well
+		int value = symbolTable.getSymbolValue(lexer, start, end);
+		if (value != -1 && (!relocatable || PREDEFINED.getSymbolValue(lexer, start, end) != -1)) {
+			int word = Code.encodeA(value);
+			if (word == Code.INVALID) {
+				addError(lexer, "Address out of range");
+				word = 0;
+			}
+			addWord(word);
+			return;
+		}
+
+		// Forward reference or variable
+		if (fixupCount == fixupIndices.length) {
+			fixupIndices = Arrays.copyOf(fixupIndices, fixupCount * 2);
+			fixupSymbols = Arrays.copyOf(fixupSymbols, fixupCount * 2);
+		}
+		fixupIndices[fixupCount] = wordCount;
+		fixupSymbols[fixupCount] = lexer.symbol();
+		fixupCount++;
+		addWord(0);
+	}
+
+
+	/**
+	 * Encode an A-Instruction resolved at the end,
+	 * record an error if the value does not fit into 15 bit
+	 * @param symbol Symbol of the instruction
+	 * @param value Its address or value
+	 * @return The instruction word, 0 on an error
+	 */
+	private int encodeA(String symbol, int value) {
+		int word = Code.encodeA(value);
+		if (word == Code.INVALID) {
+			errors.add(new AssemblyError(0, symbol, "Address out of range"));
+			word = 0;
+		}
+		return word;
+	}
+
+
+	/**
+	 * Add a C-Instruction
+	 */
+	private void addCInstruction(Lexer lexer) {
+		int word = Code.encodeC(lexer);
+		if (word == Code.INVALID) {
+			addError(lexer, "Invalid C-instruction");
+			word = 0;
+		}
+		addWord(word);
+	}
+
+
+	/**
+	 * Append a word to the program
+	 */
+	private void addWord(int word) {
+		if (wordCount == words.length) words = Arrays.copyOf(words, wordCount * 2);
+		words[wordCount++] = (short) word;
+	}
+
+
+	/**
+	 * Record an error for the current command
+	 */
+	private void addError(Lexer lexer, String message) {
+		errors.add(new AssemblyError(lexer.lineNumber(), lexer.toString(), message));
+	}
+
+
+	/**
+	 * Check for a valid symbol: letters, digits, _ . $ : not starting with a digit
+	 */
+	private static boolean isSymbol(CharSequence s, int start, int end) {
+		if (start == end) return false;
+
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			boolean valid =
+				(c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+				(c >= '0' && c <= '9' && i > start) ||
+				c == '_' || c == '.' || c == '$' || c == ':';
+			if (!valid) return false;
+		}
+		return true;
+	}
+}
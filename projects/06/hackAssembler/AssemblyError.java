@@ -0,0 +1,37 @@
+/**
+ * AssemblyError
+ * An error found while assembling, with the line it was found on
+ * 
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+public class AssemblyError {
+	private int lineNumber;
+	private String command;
+	private String message;
+
+
+	/**
+	 * Constructor
+	 * @param lineNumber Line of the command, starting at 1
+	 * @param command The command without whitespace and comments
+	 * @param message Description of the error
+	 */
+	public AssemblyError(int lineNumber, String command, String message) {
+		this.lineNumber = lineNumber;
+		this.command = command;
+		this.message = message;
+	}
+
+
+	@Override
+	public String toString() {
+		return "[Error] Line " + lineNumber + ": " + message + " (" + command + ")";
+	}
+
+
+	/* GETTERS */
+	public int getLineNumber() { return lineNumber; }
+	public String getCommand() { return command; }
+	public String getMessage() { return message; }
+}
@@ -0,0 +1,52 @@
+/**
+ * AssemblyResult
+ * The assembled program or object, or the errors that prevented it
+ * 
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+
+import java.util.Collections;
+import java.util.List;
+
+
+public class AssemblyResult {
+	private short[] program;
+	private List<AssemblyError> errors;
+	private ObjectFile objectFile;
+
+
+	/**
+	 * Constructor
+	 * @param program The program, empty if there are errors
+	 * @param errors All errors in order of their lines
+	 */
+	public AssemblyResult(short[] program, List<AssemblyError> errors) {
+		this.program = program;
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+
+	/**
+	 * Constructor
+	 * @param objectFile The relocatable object
+	 * @param errors All errors in order of their lines
+	 */
+	public AssemblyResult(ObjectFile objectFile, List<AssemblyError> errors) {
+		this(objectFile.getWords(), errors);
+		this.objectFile = objectFile;
+	}
+
+
+	/**
+	 * Check if the program was assembled
+	 * @return Are there no errors
+	 */
+	public boolean isSuccessful() { return errors.isEmpty(); }
+
+
+	/* GETTERS */
+	public short[] getProgram() { return program; }
+	public List<AssemblyError> getErrors() { return errors; }
+	public ObjectFile getObjectFile() { return objectFile; }
+}
@@ -0,0 +1,206 @@
+/**
+ * ChunkAssembler
+ * Lexes and pre-encodes a byte range of an .asm file on a ForkJoinPool
+ *
+ * A range larger than CHUNK_SIZE is split at a line break into two halves
+ * which are assembled in parallel. A leaf encodes every instruction it can
+ * without knowing the rest of the program and collects its label definitions
+ * and symbol references with chunk-local instruction indices. Resolving them
+ * is left to merge(), which has to run in program order.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.3
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+
+public class ChunkAssembler extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	public static final long CHUNK_SIZE = 1L << 20;
+
+	private FileChannel channel;
+	private long start;
+	private long end;
+
+	// Set when the range was split
+	private ChunkAssembler left;
+	private ChunkAssembler right;
+
+	// Results of a leaf
+	private short[] words;
+	private int wordCount;
+	private ArrayList<String> labels;
+	private ArrayList<Integer> labelIndices;
+	private ArrayList<String> references;
+	private ArrayList<Integer> referenceIndices;
+	private boolean syntaxError;
+
+
+	/**
+	 * Constructor
+	 * @param channel Channel of the .asm file, only used for positional reads
+	 * @param start Offset of the first byte, the start of a line
+	 * @param end Offset after the last byte, the end of a line or the file
+	 */
+	public ChunkAssembler(FileChannel channel, long start, long end) {
+		this.channel = channel;
+		this.start = start;
+		this.end = end;
+	}
+
+
+	@Override
+	protected void compute() {
+		try {
+			if (end - start > CHUNK_SIZE) {
+				long middle = nextLineStart(start + (end - start) / 2);
+				if (middle < end) {
+					left = new ChunkAssembler(channel, start, middle);
+					right = new ChunkAssembler(channel, middle, end);
+					invokeAll(left, right);
+					return;
+				}
+			}
+			assemble();
+		}
+		catch (IOException e) { throw new UncheckedIOException(e); }
+	}
+
+
+	/**
+	 * Resolve labels and symbols of all leaves in program order
+	 * and copy the words into one program
+	 * @param symbolTable Table with the predefined symbols, gets all labels and variables
+	 * @return The program
+	 */
+	public short[] merge(SymbolTable symbolTable) {
+		List<ChunkAssembler> leaves = new ArrayList<>();
+		collectLeaves(leaves);
+
+		// Labels first, a symbol may be used before its label is defined
+		int base = 0;
+		for (ChunkAssembler leaf : leaves) {
+			for (int i = 0; i < leaf.labels.size(); i++)
+				symbolTable.addSymbol(leaf.labels.get(i), base + leaf.labelIndices.get(i));
+			base += leaf.wordCount;
+		}
+
+		short[] program = new short[base];
+		int ramVariableIndex = 16;
+		base = 0;
+		for (ChunkAssembler leaf : leaves) {
+			if (leaf.syntaxError) {
+				System.out.println("[Error] Syntax error in the .asm file!");
+				System.exit(-1);
+			}
+
+			// Variables get their address on first use, exactly like the second pass
+			for (int i = 0; i < leaf.references.size(); i++) {
+				String symbol = leaf.references.get(i);
+
+				int value = symbolTable.getSymbolValue(symbol);
+				if (value == -1) {
+					value = ramVariableIndex++;
+					symbolTable.addSymbol(symbol, value);
+				}
+				int word = Code.encodeA(value);
+				if (word == Code.INVALID) {
+					System.out.println("[Error] Address " + value + " is out of range!");
+					System.exit(-1);
+				}
+				leaf.words[leaf.referenceIndices.get(i)] = (short) word;
+			}
+
+			System.arraycopy(leaf.words, 0, program, base, leaf.wordCount);
+			base += leaf.wordCount;
+		}
+
+		return program;
+	}
+
+
+	/**
+	 * Lex and encode the range
+	 */
+	private void assemble() throws IOException {
+		words = new short[(int) Math.max((end - start) / 8, 16)];
+		wordCount = 0;
+		labels = new ArrayList<>();
+		labelIndices = new ArrayList<>();
+		references = new ArrayList<>();
+		referenceIndices = new ArrayList<>();
+
+		Lexer lexer = new Lexer(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+		while (lexer.advance()) {
+			if (lexer.commandType() == Token.CommandType.LABEL) {
+				labels.add(lexer.symbol());
+				labelIndices.add(wordCount);
+				continue;
+			}
+
+			int word;
+			if (lexer.commandType() == Token.CommandType.A_INSTRUCTION) {
+				if (lexer.isConstant()) {
+					word = lexer.constant();
+					if (word == Code.INVALID) syntaxError = true;
+					else word = Code.encodeA(word);
+				}
+				else {
+					// Even predefined symbols can be redefined by a label
+					references.add(lexer.symbol());
+					referenceIndices.add(wordCount);
+					word = 0;
+				}
+			}
+			else {
+				word = Code.encodeC(lexer);
+				if (word == Code.INVALID) syntaxError = true;
+			}
+
+			if (wordCount == words.length) words = Arrays.copyOf(words, words.length * 2);
+			words[wordCount++] = (short) word;
+		}
+	}
+
+
+	/**
+	 * Find the start of the line following an offset
+	 * @param offset Offset inside the range
+	 * @return Offset after the next line break, or end if there is none
+	 */
+	private long nextLineStart(long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		while (offset < end) {
+			buffer.clear();
+			int read = channel.read(buffer, offset);
+			if (read <= 0) break;
+
+			for (int i = 0; i < read && offset + i < end; i++)
+				if (buffer.get(i) == '\n') return offset + i + 1;
+			offset += read;
+		}
+		return end;
+	}
+
+
+	/**
+	 * Collect all leaves in program order
+	 * @param leaves List to add the leaves to
+	 */
+	private void collectLeaves(List<ChunkAssembler> leaves) {
+		if (left == null) leaves.add(this);
+		else {
+			left.collectLeaves(leaves);
+			right.collectLeaves(leaves);
+		}
+	}
+}
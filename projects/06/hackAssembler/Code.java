@@ -0,0 +1,184 @@
+/**
+ * Code
+ * Encodes Hack-Assembly instructions into 16 bit words
+ *
+ * The mnemonic tables of Token are turned into integer lookup tables once.
+ * A mnemonic is packed into a table index by reading its characters as digits
+ * of a small alphabet, which is collision free (a perfect hash) for mnemonics
+ * of up to three characters. Encoding therefore allocates nothing.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.1
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+
+
+public class Code {
+	public static final int INVALID = -1;
+
+	private static final int MAX_MNEMONIC_LENGTH = 3;
+	private static final int RADIX_INDEX = 128;
+
+	private static final String DEST_ALPHABET = "AMD";
+	private static final String COMP_ALPHABET = "01-!DAM+&|";
+	private static final String JUMP_ALPHABET = "JGTEQLNMP";
+
+	private static final byte[] DEST_DIGITS = digits(DEST_ALPHABET);
+	private static final byte[] COMP_DIGITS = digits(COMP_ALPHABET);
+	private static final byte[] JUMP_DIGITS = digits(JUMP_ALPHABET);
+
+	// Index: packed mnemonic, Value: bits already shifted into place or INVALID
+	private static final int[] DEST = new int[size(DEST_ALPHABET)];
+	private static final int[] COMP = new int[size(COMP_ALPHABET)];
+	private static final int[] JUMP = new int[size(JUMP_ALPHABET)];
+
+	static {
+		Arrays.fill(DEST, INVALID);
+		Arrays.fill(COMP, INVALID);
+		Arrays.fill(JUMP, INVALID);
+
+		fill(DEST, DEST_DIGITS, Token.DEST, 3);
+		fill(COMP, COMP_DIGITS, Token.COMP_0, 6);
+		fill(COMP, COMP_DIGITS, Token.COMP_1, 6);
+		fill(COMP, COMP_DIGITS, Token.COMP_ALIASES, 6);
+		fill(JUMP, JUMP_DIGITS, Token.JUMP, 0);
+	}
+
+
+	/**
+	 * Encode an A-Instruction
+	 * @param value Address or constant
+	 * @return The instruction word or INVALID if the value does not fit into 15 bit
+	 */
+	public static int encodeA(int value) {
+		return (value >= 0 && value <= 0x7FFF) ? value : INVALID;
+	}
+
+
+	/**
+	 * Encode a C-Instruction of the form dest=comp;jump
+	 * @param instruction The instruction without whitespace
+	 * @return The instruction word or INVALID
+	 */
+	public static int encodeC(CharSequence instruction) {
+		return encodeC(instruction, 0, instruction.length());
+	}
+
+
+	/**
+	 * Encode a C-Instruction of the form dest=comp;jump
+	 * @param s Characters holding the instruction without whitespace
+	 * @param start Index of the first character
+	 * @param end Index after the last character
+	 * @return The instruction word or INVALID
+	 */
+	public static int encodeC(CharSequence s, int start, int end) {
+		int equalsIndex = -1;
+		int semicolonIndex = -1;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '=' && equalsIndex == -1) equalsIndex = i;
+			else if (c == ';') semicolonIndex = i;
+		}
+
+		int compStart = (equalsIndex != -1) ? equalsIndex + 1 : start;
+		int compEnd = (semicolonIndex != -1) ? semicolonIndex : end;
+
+		int comp = lookup(COMP, s, compStart, compEnd, COMP_DIGITS);
+		if (comp == INVALID) return INVALID;
+
+		// Unknown dest- and jump-parts are left as 000
+		int dest = (equalsIndex != -1) ? lookup(DEST, s, start, equalsIndex, DEST_DIGITS) : 0;
+		int jump = (semicolonIndex != -1) ? lookup(JUMP, s, semicolonIndex + 1, end, JUMP_DIGITS) : 0;
+
+		return 0xE000 | comp | Math.max(dest, 0) | Math.max(jump, 0);
+	}
+
+
+	/**
+	 * Render an instruction word as 16 ASCII characters '0' and '1'
+	 * @param word The instruction word
+	 * @param target Buffer to render into
+	 * @param offset Index of the first character in target
+	 */
+	public static void render(int word, byte[] target, int offset) {
+		for (int bit = 15; bit >= 0; bit--)
+			target[offset++] = (byte) ('0' + ((word >>> bit) & 1));
+	}
+
+
+	/**
+	 * Render an instruction word as 16 characters '0' and '1'
+	 * @param word The instruction word
+	 * @param target Buffer to render into
+	 * @param offset Index of the first character in target
+	 */
+	public static void render(int word, char[] target, int offset) {
+		for (int bit = 15; bit >= 0; bit--)
+			target[offset++] = (char) ('0' + ((word >>> bit) & 1));
+	}
+
+
+	/**
+	 * Look up a mnemonic in one of the tables
+	 * @return The bits of the mnemonic or INVALID
+	 */
+	private static int lookup(int[] table, CharSequence s, int start, int end, byte[] digits) {
+		int key = pack(s, start, end, digits);
+		return (key == INVALID) ? INVALID : table[key];
+	}
+
+
+	/**
+	 * Pack a mnemonic into a table index,
+	 * every character is a digit of base (alphabet length + 1)
+	 * @return The table index or INVALID if the mnemonic can not be in the table
+	 */
+	private static int pack(CharSequence s, int start, int end, byte[] digits) {
+		if (end - start > MAX_MNEMONIC_LENGTH) return INVALID;
+
+		int radix = digits[RADIX_INDEX];
+		int key = 0;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c >= RADIX_INDEX || digits[c] == 0) return INVALID;
+			key = key * radix + digits[c];
+		}
+		return key;
+	}
+
+
+	/**
+	 * Map every ASCII character of the alphabet to a digit 1..n,
+	 * the last index holds the radix n+1
+	 */
+	private static byte[] digits(String alphabet) {
+		byte[] digits = new byte[RADIX_INDEX + 1];
+		for (int i = 0; i < alphabet.length(); i++) digits[alphabet.charAt(i)] = (byte) (i + 1);
+		digits[RADIX_INDEX] = (byte) (alphabet.length() + 1);
+		return digits;
+	}
+
+
+	/**
+	 * Number of table entries needed for an alphabet
+	 */
+	private static int size(String alphabet) {
+		int size = 1;
+		for (int i = 0; i < MAX_MNEMONIC_LENGTH; i++) size *= alphabet.length() + 1;
+		return size;
+	}
+
+
+	/**
+	 * Fill a table with the bit patterns of Token
+	 */
+	private static void fill(int[] table, byte[] digits, Map<String, String> bits, int shift) {
+		for (Map.Entry<String, String> entry : bits.entrySet()) {
+			String mnemonic = entry.getKey();
+			table[pack(mnemonic, 0, mnemonic.length(), digits)] = Integer.parseInt(entry.getValue(), 2) << shift;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/**
+ * Disassembler
+ * Translates Binary-Instructions back into Hack-Assembly
+ *
+ * The text of all 65536 possible words is built once from the tables in Token,
+ * so disassembling a word is a single array lookup. Input is streamed through
+ * fixed buffers, .hack and .rom files of any size can be disassembled.
+ * Words that are no valid instruction are written as ? and their 16 bits,
+ * which the assembler rejects.
+ *
+ * Labels can be restored from a .sym file with one "NAME ADDRESS" pair per line,
+ * as written by HackAssembler -symbols. A label is written before the
+ * instruction at its address, and an A-Instruction loading the address of a
+ * label directly in front of a jump uses the label name.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+public class Disassembler {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// Index: instruction word, Value: assembly text without line separator
+	private static final byte[][] TEXT = new byte[1 << 16][];
+
+	static {
+		String[] dest = inverse(Token.DEST, 8);
+		String[] jump = inverse(Token.JUMP, 8);
+		String[] comp = inverse(Token.COMP_0, 128);
+		String[] comp1 = inverse(Token.COMP_1, 128);
+		for (int i = 0; i < comp.length; i++) if (comp1[i] != null) comp[i] = comp1[i];
+
+		for (int word = 0; word < TEXT.length; word++) {
+			String text;
+			if ((word & 0x8000) == 0) text = "@" + word;
+			else if ((word & 0xE000) != 0xE000 || comp[(word >>> 6) & 0x7F] == null) {
+				char[] bits = new char[16];
+				Code.render(word, bits, 0);
+				text = "?" + new String(bits);
+			}
+			else {
+				text = comp[(word >>> 6) & 0x7F];
+				if (((word >>> 3) & 7) != 0) text = dest[(word >>> 3) & 7] + "=" + text;
+				if ((word & 7) != 0) text = text + ";" + jump[word & 7];
+			}
+			TEXT[word] = text.getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	private byte[] lineSeparator;
+
+	// Index: ROM address, Value: label or null
+	private byte[][] labels;
+
+
+	/**
+	 * Constructor
+	 */
+	public Disassembler() {
+		this.lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+		this.labels = new byte[0][];
+	}
+
+
+	/**
+	 * Get the assembly text of an instruction word
+	 * @param word The instruction word
+	 * @return The instruction without labels
+	 */
+	public static String toAssembly(int word) {
+		return new String(TEXT[word & 0xFFFF], StandardCharsets.US_ASCII);
+	}
+
+
+	/**
+	 * Load the labels of a .sym file
+	 * @param filename Name of the .sym file
+	 */
+	public void loadSymbols(String filename) throws IOException {
+		try (BufferedReader bufferedReader = new BufferedReader(new FileReader(filename))) {
+			String line;
+			while ((line = bufferedReader.readLine()) != null) {
+				line = line.strip();
+				if (line.isEmpty() || line.startsWith(Token.SINGLE_COMMENT)) continue;
+
+				int spaceIndex = line.lastIndexOf(' ');
+				if (spaceIndex == -1) throw new IOException("Invalid line in .sym file: " + line);
+
+				int address = Integer.parseInt(line.substring(spaceIndex + 1));
+				if (address >= labels.length) labels = Arrays.copyOf(labels, Math.max(address + 1, labels.length * 2));
+				labels[address] = line.substring(0, spaceIndex).strip().getBytes(StandardCharsets.US_ASCII);
+			}
+		}
+	}
+
+
+	/**
+	 * Disassemble a .hack or .rom file
+	 * @param inputFilename Name of the .hack or .rom file
+	 * @param outputFilename Name of the .asm file
+	 */
+	public void disassemble(String inputFilename, String outputFilename) throws IOException {
+		try (
+			FileChannel in = FileChannel.open(Paths.get(inputFilename), StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(
+				Paths.get(outputFilename),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING
+			)
+		) {
+			WordWriter writer = new WordWriter(out);
+			if (inputFilename.endsWith(".rom")) readBinary(in, writer);
+			else readAscii(in, writer);
+			writer.finish();
+		}
+	}
+
+
+	/**
+	 * Read lines of 16 characters '0' and '1'
+	 */
+	private void readAscii(FileChannel in, WordWriter writer) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		int word = 0;
+		int digits = 0;
+		long lineNumber = 1;
+
+		while (in.read(buffer) != -1) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				byte c = buffer.get();
+				if (c == '0' || c == '1') {
+					word = (word << 1) | (c - '0');
+					digits++;
+				}
+				else if (c == '\n') {
+					if (digits != 0) {
+						if (digits != 16) throw new IOException("Invalid instruction in line " + lineNumber);
+						writer.write(word);
+					}
+					word = 0;
+					digits = 0;
+					lineNumber++;
+				}
+				else if (c > ' ') throw new IOException("Invalid character in line " + lineNumber);
+			}
+			buffer.clear();
+		}
+
+		// Last line without line separator
+		if (digits != 0) {
+			if (digits != 16) throw new IOException("Invalid instruction in line " + lineNumber);
+			writer.write(word);
+		}
+	}
+
+
+	/**
+	 * Read the packed format of RomWriter, the checksum is verified at the end
+	 */
+	private void readBinary(FileChannel in, WordWriter writer) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.limit(RomWriter.HEADER_LENGTH);
+		while (buffer.hasRemaining() && in.read(buffer) != -1);
+		buffer.flip();
+
+		if (buffer.remaining() < RomWriter.HEADER_LENGTH || buffer.getInt() != RomWriter.MAGIC)
+			throw new IOException("Not a .rom file");
+		long remaining = buffer.getInt() & 0xFFFFFFFFL;
+		int checksum = buffer.getInt();
+
+		CRC32 crc = new CRC32();
+		buffer.clear();
+		while (remaining > 0 && in.read(buffer) != -1) {
+			buffer.flip();
+			crc.update(buffer.array(), 0, buffer.limit() & ~1);
+			while (buffer.remaining() >= 2 && remaining > 0) {
+				writer.write(buffer.getShort() & 0xFFFF);
+				remaining--;
+			}
+			buffer.compact();
+		}
+
+		if (remaining > 0) throw new IOException("Truncated .rom file");
+		if ((int) crc.getValue() != checksum) throw new IOException("Checksum mismatch in .rom file");
+	}
+
+
+	/**
+	 * Turn the inverse of a Token table into an array indexed by the bits
+	 */
+	private static String[] inverse(Map<String, String> table, int size) {
+		String[] mnemonics = new String[size];
+		for (Map.Entry<String, String> entry : table.entrySet())
+			mnemonics[Integer.parseInt(entry.getValue(), 2)] = entry.getKey();
+		return mnemonics;
+	}
+
+
+	/**
+	 * Writes words as assembly, one word behind the input,
+	 * so an A-Instruction can see if a jump follows
+	 */
+	private class WordWriter {
+		private FileChannel out;
+		private ByteBuffer buffer;
+		private int address;
+		private int pending;
+
+
+		WordWriter(FileChannel out) {
+			this.out = out;
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			this.address = 0;
+			this.pending = -1;
+		}
+
+
+		void write(int word) throws IOException {
+			if (pending != -1) emit(pending, (word & 0xE007) > 0xE000);
+			pending = word;
+		}
+
+
+		void finish() throws IOException {
+			if (pending != -1) emit(pending, false);
+			pending = -1;
+
+			buffer.flip();
+			while (buffer.hasRemaining()) out.write(buffer);
+		}
+
+
+		private void emit(int word, boolean beforeJump) throws IOException {
+			byte[] label = (address < labels.length) ? labels[address] : null;
+			if (label != null) {
+				put('(', label, ')');
+			}
+
+			byte[] target = ((word & 0x8000) == 0 && beforeJump && word < labels.length) ? labels[word] : null;
+			if (target != null) put('@', target, 0);
+			else put(0, TEXT[word], 0);
+
+			address++;
+		}
+
+
+		private void put(int prefix, byte[] text, int suffix) throws IOException {
+			if (buffer.remaining() < text.length + 2 + lineSeparator.length) {
+				buffer.flip();
+				while (buffer.hasRemaining()) out.write(buffer);
+				buffer.clear();
+
+				// Labels can be longer than the buffer
+				if (buffer.remaining() < text.length + 2 + lineSeparator.length)
+					buffer = ByteBuffer.allocate(text.length + 2 + lineSeparator.length);
+			}
+
+			if (prefix != 0) buffer.put((byte) prefix);
+			buffer.put(text);
+			if (suffix != 0) buffer.put((byte) suffix);
+			buffer.put(lineSeparator);
+		}
+	}
+}
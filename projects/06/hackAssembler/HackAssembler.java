@@ -3,19 +3,125 @@
  * Translates Hack-Assembly into Binary-Instructions
  * 
  * @author Sirat Ahmadi
- * @version 1.0
+ * @version 1.1
  */
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+
 public class HackAssembler {
 	public static void main(String[] args) {
-		if (args.length != 1) {
-			System.out.println("[Error] Execute: java HackAssembler filename.asm");
+		Token.ParseMode mode = Token.ParseMode.TWO_PASS;
+		boolean binaryOutput = false;
+		boolean objectOutput = false;
+		boolean symbolOutput = false;
+		boolean optimizing = false;
+
+		// Options come before the filename
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals("-stream")) mode = Token.ParseMode.STREAMING;
+			else if (args[i].equals("-parallel")) mode = Token.ParseMode.PARALLEL;
+			else if (args[i].equals("-binary")) binaryOutput = true;
+			else if (args[i].equals("-object")) objectOutput = true;
+			else if (args[i].equals("-symbols")) symbolOutput = true;
+			else if (args[i].equals("-optimize")) optimizing = true;
+			else usage();
+		}
+		if (args.length == 0) usage();
+
+		// The streaming mode writes text records while it reads
+		if (mode == Token.ParseMode.STREAMING && binaryOutput) {
+			System.out.println("[Error] -binary can not be combined with -stream");
 			System.exit(-1);
 		}
 
-		String filename = args[0];
+		// The optimizer needs the whole program before labels are resolved
+		if (optimizing && (mode != Token.ParseMode.TWO_PASS || objectOutput || symbolOutput)) {
+			System.out.println("[Error] -optimize can only be used in the two pass mode");
+			System.exit(-1);
+		}
+
+		String filename = args[args.length - 1];
+
+		// Relocatable object for the HackLinker
+		if (objectOutput) {
+			assembleObject(filename);
+			return;
+		}
 
-		// Create Parser and parse the file
-		Parser parser = new Parser(filename);
+		// Create Parser and parse the file,
+		// a streaming Parser translates in a single pass,
+		// a parallel Parser translates chunks of the file at the same time
+		Parser parser = new Parser(filename, mode);
+		parser.setBinaryOutput(binaryOutput);
+		parser.setOptimizing(optimizing);
 		parser.parse();
+
+		// Labels for the HackDisassembler
+		if (symbolOutput) writeSymbols(filename);
+	}
+
+
+	/**
+	 * Assemble the file into a relocatable object with .obj file-extension
+	 * @param filename Name of the .asm file
+	 */
+	private static void assembleObject(String filename) {
+		String outputFilename = filename.substring(0, filename.lastIndexOf(".")) + ".obj";
+
+		try {
+			AssemblyResult result = new Assembler().assembleObject(
+				ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)))
+			);
+			if (!result.isSuccessful()) {
+				for (AssemblyError error : result.getErrors()) System.out.println(error);
+				System.exit(-1);
+			}
+			result.getObjectFile().write(outputFilename);
+		}
+		catch (IOException e) { e.printStackTrace(); }
+	}
+
+
+	/**
+	 * Write all labels with their ROM address into a file with .sym file-extension
+	 * @param filename Name of the .asm file
+	 */
+	private static void writeSymbols(String filename) {
+		String outputFilename = filename.substring(0, filename.lastIndexOf(".")) + ".sym";
+
+		try {
+			// An object placed at ROM 0 exports every label with its final address
+			AssemblyResult result = new Assembler().assembleObject(
+				ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)))
+			);
+			if (!result.isSuccessful()) {
+				for (AssemblyError error : result.getErrors()) System.out.println(error);
+				System.exit(-1);
+			}
+
+			ObjectFile objectFile = result.getObjectFile();
+			try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(outputFilename))) {
+				for (int i = 0; i < objectFile.getExportNames().size(); i++) {
+					bufferedWriter.append(objectFile.getExportNames().get(i) + " " + objectFile.getExportAddresses().get(i));
+					bufferedWriter.append(System.lineSeparator());
+				}
+			}
+		}
+		catch (IOException e) { e.printStackTrace(); }
+	}
+
+
+	/**
+	 * Print usage and exit
+	 */
+	private static void usage() {
+		System.out.println("[Error] Execute: java HackAssembler [-stream | -parallel | -object] [-binary] [-symbols] [-optimize] filename.asm");
+		System.exit(-1);
 	}
-}
\ No newline at end of file
+}
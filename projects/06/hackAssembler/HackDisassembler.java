@@ -0,0 +1,35 @@
+/**
+ * HackDisassembler
+ * Translates Binary-Instructions back into Hack-Assembly
+ * 
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+
+import java.io.IOException;
+
+
+public class HackDisassembler {
+	public static void main(String[] args) {
+		boolean withSymbols = args.length == 3 && args[0].equals("-symbols");
+
+		if (args.length != 1 && !withSymbols) {
+			System.out.println("[Error] Execute: java HackDisassembler [-symbols filename.sym] [filename.hack | filename.rom]");
+			System.exit(-1);
+		}
+
+		// Name.hack is written to Name.dis.asm, to keep the original .asm
+		String filename = args[args.length - 1];
+		String outputFilename = filename.substring(0, filename.lastIndexOf(".")) + ".dis.asm";
+
+		try {
+			Disassembler disassembler = new Disassembler();
+			if (withSymbols) disassembler.loadSymbols(args[1]);
+			disassembler.disassemble(filename, outputFilename);
+		}
+		catch (IOException e) {
+			System.out.println("[Error] Disassembling failed: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
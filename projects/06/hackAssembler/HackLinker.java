@@ -0,0 +1,46 @@
+/**
+ * HackLinker
+ * Links relocatable objects into Binary-Instructions
+ * 
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class HackLinker {
+	public static void main(String[] args) {
+		boolean binaryOutput = args.length > 0 && args[0].equals("-binary");
+		int first = binaryOutput ? 1 : 0;
+
+		if (args.length - first < 2) {
+			System.out.println("[Error] Execute: java HackLinker [-binary] output.hack file1.obj [file2.obj ...]");
+			System.exit(-1);
+		}
+
+		String outputFilename = args[first];
+
+		try {
+			// Objects are placed into ROM in the order they are given
+			List<ObjectFile> objects = new ArrayList<>();
+			for (int i = first + 1; i < args.length; i++) objects.add(ObjectFile.read(args[i]));
+
+			AssemblyResult result = Linker.link(objects);
+			if (!result.isSuccessful()) {
+				for (AssemblyError error : result.getErrors()) System.out.println(error);
+				System.exit(-1);
+			}
+
+			short[] program = result.getProgram();
+			if (binaryOutput) RomWriter.writeBinary(program, program.length, outputFilename);
+			else RomWriter.writeAscii(program, program.length, outputFilename);
+		}
+		catch (IOException e) {
+			System.out.println("[Error] Linking failed: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/**
+ * Lexer
+ * Scans a memory-mapped .asm file byte by byte
+ *
+ * Every call of advance() moves to the next command. Comments and whitespace
+ * are stripped while scanning, no regular expressions and no Strings are
+ * involved. The Lexer itself is the CharSequence of the current command,
+ * so it can be handed to Code and SymbolTable directly.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.2
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+public class Lexer implements CharSequence, AutoCloseable {
+	public static final int MAX_CONSTANT = 32767;
+
+	private static final long WINDOW_SIZE = 1L << 26;
+
+	private FileChannel channel;
+	private long fileSize;
+	private long windowEnd;
+	private ByteBuffer window;
+	private CharSequence text;
+	private int textIndex;
+
+	private byte[] command;
+	private int length;
+	private Token.CommandType commandType;
+	private int lineNumber;
+
+
+	/**
+	 * Constructor:
+	 * Open and map the input file
+	 * @param filename Name of the .asm file
+	 */
+	public Lexer(String filename) throws IOException {
+		this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.windowEnd = 0;
+		this.window = null;
+
+		this.command = new byte[64];
+		this.length = 0;
+	}
+
+
+	/**
+	 * Constructor:
+	 * Scan the remaining bytes of a buffer, e.g. one mapped chunk of a file
+	 * @param input Buffer holding .asm lines
+	 */
+	public Lexer(ByteBuffer input) {
+		this.channel = null;
+		this.fileSize = 0;
+		this.windowEnd = 0;
+		this.window = input;
+
+		this.command = new byte[64];
+		this.length = 0;
+	}
+
+
+	/**
+	 * Constructor:
+	 * Scan .asm source held in memory,
+	 * characters outside of ASCII can not be part of a valid command
+	 * @param input The .asm source
+	 */
+	public Lexer(CharSequence input) {
+		this.channel = null;
+		this.fileSize = 0;
+		this.windowEnd = 0;
+		this.window = null;
+		this.text = input;
+		this.textIndex = 0;
+
+		this.command = new byte[64];
+		this.length = 0;
+	}
+
+
+	/**
+	 * Move to the next command, skipping comments and empty lines
+	 * @return Is there another command
+	 */
+	public boolean advance() throws IOException {
+		int c = read();
+
+		while (c != -1) {
+			length = 0;
+			lineNumber++;
+			boolean inComment = false;
+			int previous = -1;
+
+			while (c != -1 && c != '\n') {
+				if (inComment || c <= ' ') {
+					// Skip comment and whitespace
+				}
+				else if (c == '/' && previous == '/') {
+					inComment = true;
+					length--;
+				}
+				else append(c);
+
+				previous = c;
+				c = read();
+			}
+
+			if (length > 0) {
+				if (command[0] == '@') commandType = Token.CommandType.A_INSTRUCTION;
+				else if (command[0] == '(') commandType = Token.CommandType.LABEL;
+				else commandType = Token.CommandType.C_INSTRUCTION;
+				return true;
+			}
+
+			c = read();
+		}
+
+		length = 0;
+		return false;
+	}
+
+
+	/**
+	 * Get the type of the current command
+	 * @return A_INSTRUCTION, C_INSTRUCTION or LABEL
+	 */
+	public Token.CommandType commandType() { return commandType; }
+
+
+	/**
+	 * Get the line of the current command
+	 * @return Line number, starting at 1
+	 */
+	public int lineNumber() { return lineNumber; }
+
+
+	/**
+	 * Get the start of the symbol or value of the current command,
+	 * skips the leading @ or (
+	 * @return Index of the first character
+	 */
+	public int symbolStart() {
+		return (commandType == Token.CommandType.C_INSTRUCTION) ? 0 : 1;
+	}
+
+
+	/**
+	 * Get the end of the symbol or value of the current command,
+	 * skips the trailing ) of a label
+	 * @return Index after the last character
+	 */
+	public int symbolEnd() {
+		return (commandType == Token.CommandType.LABEL && command[length - 1] == ')') ? length - 1 : length;
+	}
+
+
+	/**
+	 * Check if the A-Instruction holds a decimal constant
+	 * @return Are all characters after the @ digits
+	 */
+	public boolean isConstant() {
+		return isConstant(this, symbolStart(), symbolEnd());
+	}
+
+
+	/**
+	 * Get the decimal constant of the A-Instruction,
+	 * stops as soon as the value does not fit into 15 bit
+	 * @return The constant or Code.INVALID if it is larger than MAX_CONSTANT
+	 */
+	public int constant() {
+		return constant(this, symbolStart(), symbolEnd());
+	}
+
+
+	/**
+	 * Check if characters hold a decimal constant
+	 * @param s Characters holding the value, e.g. an A-Instruction
+	 * @param start Index of the first character after the @
+	 * @param end Index after the last character
+	 * @return Are all characters digits
+	 */
+	public static boolean isConstant(CharSequence s, int start, int end) {
+		if (start == end) return false;
+
+		for (int i = start; i < end; i++)
+			if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+		return true;
+	}
+
+
+	/**
+	 * Get the decimal constant held by characters,
+	 * stops as soon as the value does not fit into 15 bit
+	 * @param s Characters holding the digits
+	 * @param start Index of the first digit
+	 * @param end Index after the last digit
+	 * @return The constant or Code.INVALID if it is larger than MAX_CONSTANT
+	 */
+	public static int constant(CharSequence s, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			value = value * 10 + (s.charAt(i) - '0');
+			if (value > MAX_CONSTANT) return Code.INVALID;
+		}
+		return value;
+	}
+
+
+	/**
+	 * Get the symbol of the current A-Instruction or label
+	 * @return The symbol as a new String
+	 */
+	public String symbol() {
+		return subSequence(symbolStart(), symbolEnd()).toString();
+	}
+
+
+	@Override
+	public int length() { return length; }
+
+	@Override
+	public char charAt(int index) { return (char) (command[index] & 0xFF); }
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) chars[i - start] = charAt(i);
+		return new String(chars);
+	}
+
+	@Override
+	public String toString() { return subSequence(0, length).toString(); }
+
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) channel.close();
+	}
+
+
+	/**
+	 * Append a byte to the current command
+	 * @param c The byte to append
+	 */
+	private void append(int c) {
+		if (length == command.length) {
+			byte[] larger = new byte[command.length * 2];
+			System.arraycopy(command, 0, larger, 0, length);
+			command = larger;
+		}
+		command[length++] = (byte) c;
+	}
+
+
+	/**
+	 * Read the next byte, map the next window of the file when needed
+	 * @return The byte or -1 at the end of the file
+	 */
+	private int read() throws IOException {
+		if (text != null) {
+			if (textIndex == text.length()) return -1;
+			char c = text.charAt(textIndex++);
+			return (c < 0x80) ? c : 0x80;
+		}
+
+		if (window == null || !window.hasRemaining()) {
+			if (windowEnd >= fileSize) return -1;
+
+			long size = Math.min(WINDOW_SIZE, fileSize - windowEnd);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, size);
+			windowEnd += size;
+		}
+		return window.get() & 0xFF;
+	}
+}
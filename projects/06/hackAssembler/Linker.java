@@ -0,0 +1,98 @@
+/**
+ * Linker
+ * Combines separately assembled objects into one program
+ *
+ * The objects are placed into ROM in the given order. Imports are resolved
+ * to the labels exported by any object, every other symbol is a variable
+ * and gets an address from RAM 16 on in order of its first use. Linking
+ * objects therefore gives the same program as assembling their sources
+ * one after another in a single file.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.1
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class Linker {
+	public static final int ROM_SIZE = 32768;
+
+
+	/**
+	 * Link the objects into a program
+	 * @param objects The objects in ROM order
+	 * @return The program or the errors, errors have no line number
+	 */
+	public static AssemblyResult link(List<ObjectFile> objects) {
+		List<AssemblyError> errors = new ArrayList<>();
+		SymbolTable symbolTable = new SymbolTable();
+
+		// Place the objects and collect their labels
+		int[] bases = new int[objects.size()];
+		int size = 0;
+		for (int i = 0; i < objects.size(); i++) {
+			ObjectFile objectFile = objects.get(i);
+			bases[i] = size;
+
+			for (int j = 0; j < objectFile.getExportNames().size(); j++) {
+				String name = objectFile.getExportNames().get(j);
+				if (symbolTable.getSymbolValue(name) != -1)
+					errors.add(new AssemblyError(0, name, "Label is defined in more than one object"));
+				else symbolTable.addSymbol(name, size + objectFile.getExportAddresses().get(j));
+			}
+
+			size += objectFile.getWords().length;
+		}
+
+		if (size > ROM_SIZE)
+			errors.add(new AssemblyError(0, "", "Program does not fit into ROM (" + size + " words)"));
+		if (!errors.isEmpty()) return new AssemblyResult(new short[0], errors);
+
+		// Copy the words and apply the relocations in program order
+		short[] program = new short[size];
+		int ramVariableIndex = 16;
+		for (int i = 0; i < objects.size(); i++) {
+			ObjectFile objectFile = objects.get(i);
+			System.arraycopy(objectFile.getWords(), 0, program, bases[i], objectFile.getWords().length);
+
+			for (int j = 0; j < objectFile.getRelocationIndices().size(); j++) {
+				int index = bases[i] + objectFile.getRelocationIndices().get(j);
+
+				if (objectFile.getRelocationTypes().get(j) == ObjectFile.RELOCATION_LOCAL) {
+					program[index] = (short) encodeA(program[index] + bases[i], "", errors);
+					continue;
+				}
+
+				String symbol = objectFile.getRelocationSymbols().get(j);
+				int value = symbolTable.getSymbolValue(symbol);
+				if (value == -1) {
+					value = ramVariableIndex++;
+					symbolTable.addSymbol(symbol, value);
+				}
+				program[index] = (short) encodeA(value, symbol, errors);
+			}
+		}
+
+		if (!errors.isEmpty()) return new AssemblyResult(new short[0], errors);
+		return new AssemblyResult(program, errors);
+	}
+
+
+	/**
+	 * Encode an A-Instruction, record an error if the value does not fit into 15 bit
+	 * @param value The address
+	 * @param symbol Symbol of the instruction, empty for a local label
+	 * @param errors Errors of the link
+	 * @return The instruction word, 0 on an error
+	 */
+	private static int encodeA(int value, String symbol, List<AssemblyError> errors) {
+		int word = Code.encodeA(value);
+		if (word == Code.INVALID) {
+			errors.add(new AssemblyError(0, symbol, "Address " + value + " out of range"));
+			word = 0;
+		}
+		return word;
+	}
+}
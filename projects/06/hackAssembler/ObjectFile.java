@@ -0,0 +1,160 @@
+/**
+ * ObjectFile
+ * A separately assembled, relocatable piece of a program
+ *
+ * The words are assembled as if the object started at ROM address 0.
+ * Every label of the object is exported with its local address.
+ * A relocation marks an A-Instruction whose value is only known when linking:
+ * a local relocation holds a local label address that is moved by the base
+ * address of the object, an import names a label of another object or a
+ * variable, which the Linker allocates from RAM 16 on.
+ *
+ * The .obj format is written with DataOutputStream:
+ * magic "HOBJ", word count, words, export count, (name, address) pairs,
+ * relocation count, (index, type, name of an import) entries.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class ObjectFile {
+	public static final int MAGIC = 0x484F424A;   // "HOBJ"
+
+	public static final byte RELOCATION_LOCAL = 0;
+	public static final byte RELOCATION_IMPORT = 1;
+
+	private short[] words;
+
+	private List<String> exportNames;
+	private List<Integer> exportAddresses;
+
+	private List<Integer> relocationIndices;
+	private List<Byte> relocationTypes;
+	private List<String> relocationSymbols;
+
+
+	/**
+	 * Constructor
+	 * @param words The instructions, relocated words hold the local address or 0
+	 */
+	public ObjectFile(short[] words) {
+		this.words = words;
+
+		this.exportNames = new ArrayList<>();
+		this.exportAddresses = new ArrayList<>();
+
+		this.relocationIndices = new ArrayList<>();
+		this.relocationTypes = new ArrayList<>();
+		this.relocationSymbols = new ArrayList<>();
+	}
+
+
+	/**
+	 * Export a label
+	 * @param name The label
+	 * @param address Address relative to the start of the object
+	 */
+	public void addExport(String name, int address) {
+		exportNames.add(name);
+		exportAddresses.add(address);
+	}
+
+
+	/**
+	 * Add a relocation, relocations have to be added in order of their index
+	 * @param index Index of the A-Instruction
+	 * @param type RELOCATION_LOCAL or RELOCATION_IMPORT
+	 * @param symbol The referenced symbol
+	 */
+	public void addRelocation(int index, byte type, String symbol) {
+		relocationIndices.add(index);
+		relocationTypes.add(type);
+		relocationSymbols.add(symbol);
+	}
+
+
+	/**
+	 * Write the object to a .obj file
+	 * @param filename Name of the .obj file
+	 */
+	public void write(String filename) throws IOException {
+		try (
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(filename))
+			)
+		) {
+			out.writeInt(MAGIC);
+
+			out.writeInt(words.length);
+			for (short word : words) out.writeShort(word);
+
+			out.writeInt(exportNames.size());
+			for (int i = 0; i < exportNames.size(); i++) {
+				out.writeUTF(exportNames.get(i));
+				out.writeInt(exportAddresses.get(i));
+			}
+
+			out.writeInt(relocationIndices.size());
+			for (int i = 0; i < relocationIndices.size(); i++) {
+				out.writeInt(relocationIndices.get(i));
+				out.writeByte(relocationTypes.get(i));
+				if (relocationTypes.get(i) == RELOCATION_IMPORT) out.writeUTF(relocationSymbols.get(i));
+			}
+		}
+	}
+
+
+	/**
+	 * Read an object from a .obj file
+	 * @param filename Name of the .obj file
+	 * @return The object, local relocations have no symbol
+	 */
+	public static ObjectFile read(String filename) throws IOException {
+		try (
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(filename))
+			)
+		) {
+			if (in.readInt() != MAGIC) throw new IOException("Not an .obj file: " + filename);
+
+			short[] words = new short[in.readInt()];
+			for (int i = 0; i < words.length; i++) words[i] = in.readShort();
+			ObjectFile objectFile = new ObjectFile(words);
+
+			int exportCount = in.readInt();
+			for (int i = 0; i < exportCount; i++) objectFile.addExport(in.readUTF(), in.readInt());
+
+			int relocationCount = in.readInt();
+			for (int i = 0; i < relocationCount; i++) {
+				int index = in.readInt();
+				byte type = in.readByte();
+				String symbol = (type == RELOCATION_IMPORT) ? in.readUTF() : null;
+				objectFile.addRelocation(index, type, symbol);
+			}
+
+			return objectFile;
+		}
+	}
+
+
+	/* GETTERS */
+	public short[] getWords() { return words; }
+
+	public List<String> getExportNames() { return exportNames; }
+	public List<Integer> getExportAddresses() { return exportAddresses; }
+
+	public List<Integer> getRelocationIndices() { return relocationIndices; }
+	public List<Byte> getRelocationTypes() { return relocationTypes; }
+	public List<String> getRelocationSymbols() { return relocationSymbols; }
+}
@@ -3,74 +3,65 @@
  * Parses the .hack file and translates instructions
  * 
  * @author Sirat Ahmadi
- * @version 1.0
+ * @version 1.2
  */
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class Parser {
 	private String filename;
 	private ArrayList<String> commands;
-	private ArrayList<String> commandsTranslated;
+	private short[] commandsTranslated;
+	private int translatedCount;
 	private SymbolTable symbolTable;
+	private Token.ParseMode mode;
+	private boolean binaryOutput;
+	private boolean optimizing;
 
 	/**
 	 * Constructor:
 	 * Create Symbol-Table, init Commands-List
 	 */
 	public Parser(String filename) {
+		this(filename, Token.ParseMode.TWO_PASS);
+	}
+
+	/**
+	 * Constructor:
+	 * Create Symbol-Table, init Commands-List for the two pass mode.
+	 * A streaming Parser reads, translates and writes every line
+	 * in a single pass and never holds the whole program in memory.
+	 * A parallel Parser assembles chunks of the file on a ForkJoinPool.
+	 */
+	public Parser(String filename, Token.ParseMode mode) {
 		this.filename = filename;
+		this.mode = mode;
 		
 		this.symbolTable = new SymbolTable();
 
 		this.commands = new ArrayList<>();
-		this.initCommands();
+		if (mode == Token.ParseMode.TWO_PASS) this.initCommands();
 
-		this.commandsTranslated = new ArrayList<>();
+		this.commandsTranslated = new short[Math.max(commands.size(), 16)];
+		this.translatedCount = 0;
 	}
 
 	/**
 	 * Init Commands-List
 	 */
 	private void initCommands() {
-		try (
-			BufferedReader bufferedReader = new BufferedReader(new FileReader(filename))
-		) {
-			String line = bufferedReader.readLine();
-			String[] lineSplitted;
-			String tmpCommand;
-
-			while (line != null) {
-				tmpCommand = "";
-
-				// Skip comments and empty lines
-				if (
-					line.startsWith(Token.SINGLE_COMMENT) || 
-					line.equals(Token.EMPTY) || 
-					line.equals(Token.SPACE)
-				) { 
-					line = bufferedReader.readLine(); 
-				}	
-				else {
-					lineSplitted = line.split(Token.SPACE);
-					for (String token : lineSplitted) {
-						// Skip all parts affter comments start,
-						// and skip all parts that are spaces
-						if (token.equals(Token.SINGLE_COMMENT)) break;
-						if (token.equals(Token.SPACE)) continue;
-						
-						tmpCommand += token;
-					}
-					commands.add(tmpCommand);
-					line = bufferedReader.readLine();
-				}
-			}
+		// The Lexer strips comments and whitespace
+		try (Lexer lexer = new Lexer(filename)) {
+			while (lexer.advance()) commands.add(lexer.toString());
 		}
 		catch (IOException e) { e.printStackTrace(); }
 	}
@@ -79,31 +70,35 @@ public class Parser {
 	 * Parse Commands-List
 	 */
 	public void parse() {
+		if (mode == Token.ParseMode.STREAMING) {
+			parseStreaming();
+			return;
+		}
+		if (mode == Token.ParseMode.PARALLEL) {
+			parseParallel();
+			return;
+		}
+
+		// Remove redundant instructions while labels are still in place
+		if (optimizing) commands = PeepholeOptimizer.optimize(commands);
+
 		// First Pass:
 		// Resolve all labels of form (xxx)
 		// Add to SymbolTable pair (xxx, address) with
-		// address = the index of label (xxx), delete label from commands
-		ArrayList<Integer> linesToDelete = new ArrayList<>();
-		int lineNumber = 0;
+		// address = the index of the next instruction, keep only instructions
+		ArrayList<String> instructions = new ArrayList<>(commands.size());
 		for (String command : commands) {
 			if (command.startsWith("(")) {
-				// Mark current line for deletion
-				linesToDelete.add(lineNumber);
-
 				// Remove ( and ) from command
 				String key = command.substring(1, command.length()-1).trim();
-
-				// Important: When a line gets deleted, the line-numbers shift down
-				symbolTable.addSymbol(key, lineNumber - linesToDelete.size() + 1);
+				symbolTable.addSymbol(key, instructions.size());
 			}
-			lineNumber++;
+			else instructions.add(command);
 		}
 
-		// Delete all Label-Commands
-		for (int i = 0; i < linesToDelete.size(); i++) {
-			// After deleting first line, line numbers shift down
-			commands.remove((int) linesToDelete.get(i) - i);
-		}
+		// Drop all Label-Commands in one go,
+		// removing them one by one shifts the list every time
+		commands = instructions;
 
 
 		// Second Pass:
@@ -118,8 +113,9 @@ public class Parser {
 				int value = symbolTable.getSymbolValue(command);
 				if (value != -1) translateAInstruction(value);
 				else {
-					// Check if command is an integer
-					if(isInteger(command)) translateAInstruction(Integer.parseInt(command));
+					// Check if command is a constant, read like in the other modes
+					if (Lexer.isConstant(command, 0, command.length()))
+						translateAInstruction(checkConstant(Lexer.constant(command, 0, command.length())));
 					else {
 						symbolTable.addSymbol(command, ramVariableIndex);
 						translateAInstruction(ramVariableIndex);
@@ -136,15 +132,150 @@ public class Parser {
 	}
 
 	/**
-	 * Checks if a string can be converted to an integer
-	 * 
-	 * @param s The string to be converted
-	 * @return Can the string be converted
+	 * Parse, translate and write in a single pass.
+	 * Labels are added to the Symbol-Table when they are reached.
+	 * A-Instructions with a symbol that is not yet known are written
+	 * as a placeholder and remembered in a fixup list. After the last line
+	 * every fixup is resolved in order of appearance, either to a label
+	 * defined later or to a new variable, and patched in the output file.
+	 */
+	private void parseStreaming() {
+		ArrayList<Integer> fixupIndices = new ArrayList<>();
+		ArrayList<String> fixupSymbols = new ArrayList<>();
+
+		// Every instruction is a record of 16 digits and a line separator
+		byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+		int recordLength = 16 + lineSeparator.length;
+		byte[] record = Arrays.copyOf(new byte[16], recordLength);
+		System.arraycopy(lineSeparator, 0, record, 16, lineSeparator.length);
+		ByteBuffer buffer = ByteBuffer.allocate(recordLength * 4096);
+
+		try (
+			Lexer lexer = new Lexer(filename);
+			FileChannel out = FileChannel.open(
+				Paths.get(getOutputFilename()),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING
+			)
+		) {
+			int instructionIndex = 0;
+
+			while (lexer.advance()) {
+				// Labels point to the next instruction, nothing is written
+				if (lexer.commandType() == Token.CommandType.LABEL) {
+					symbolTable.addSymbol(lexer.symbol(), instructionIndex);
+					continue;
+				}
+
+				int word;
+				if (lexer.commandType() == Token.CommandType.A_INSTRUCTION) {
+					int value = symbolTable.getSymbolValue(lexer, lexer.symbolStart(), lexer.symbolEnd());
+					if (value != -1) word = encodeAInstruction(value);
+					else if (lexer.isConstant()) word = encodeAInstruction(checkConstant(lexer.constant()));
+					else {
+						// Forward reference or variable, resolved at the end
+						fixupIndices.add(instructionIndex);
+						fixupSymbols.add(lexer.symbol());
+						word = Code.encodeA(0);
+					}
+				}
+				else {
+					word = Code.encodeC(lexer);
+					if (word == Code.INVALID) {
+						System.out.println("[Error] Syntax error in the .asm file!");
+						System.exit(-1);
+					}
+				}
+
+				if (buffer.remaining() < recordLength) flush(buffer, out);
+				Code.render(word, record, 0);
+				buffer.put(record);
+				instructionIndex++;
+			}
+			flush(buffer, out);
+
+			// Patch all fixups, variables get their address on first use.
+			// Fixups are in output order, so the file is patched chunk by chunk
+			int ramVariableIndex = 16;
+			int chunkRecords = buffer.capacity() / recordLength;
+			int i = 0;
+			while (i < fixupIndices.size()) {
+				int firstRecord = fixupIndices.get(i);
+				int recordCount = Math.min(chunkRecords, instructionIndex - firstRecord);
+				long position = (long) firstRecord * recordLength;
+
+				buffer.clear();
+				buffer.limit(recordCount * recordLength);
+				while (buffer.hasRemaining()) out.read(buffer, position + buffer.position());
+
+				for (; i < fixupIndices.size() && fixupIndices.get(i) < firstRecord + recordCount; i++) {
+					String symbol = fixupSymbols.get(i);
+
+					int value = symbolTable.getSymbolValue(symbol);
+					if (value == -1) {
+						value = ramVariableIndex++;
+						symbolTable.addSymbol(symbol, value);
+					}
+
+					int offset = (fixupIndices.get(i) - firstRecord) * recordLength;
+					Code.render(encodeAInstruction(value), buffer.array(), offset);
+				}
+
+				buffer.flip();
+				while (buffer.hasRemaining()) out.write(buffer, position + buffer.position());
+			}
+		}
+		catch (IOException e) { e.printStackTrace(); }
+	}
+
+
+	/**
+	 * Assemble chunks of the file in parallel.
+	 * Every chunk is lexed and encoded on its own, the labels and symbols
+	 * are resolved afterwards in program order, so the output is the same
+	 * as in the two pass mode.
+	 */
+	private void parseParallel() {
+		try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			ChunkAssembler root = new ChunkAssembler(in, 0, in.size());
+			ForkJoinPool.commonPool().invoke(root);
+
+			short[] program = root.merge(symbolTable);
+			commandsTranslated = Arrays.copyOf(program, Math.max(program.length, 1));
+			translatedCount = program.length;
+		}
+		catch (IOException e) { e.printStackTrace(); }
+
+		// Write translated commands to file
+		writeToFile();
+	}
+
+
+	/**
+	 * Write the buffered records to the channel and clear the buffer
+	 * @param buffer Buffer holding the records
+	 * @param out Channel of the output file
+	 */
+	private void flush(ByteBuffer buffer, FileChannel out) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) out.write(buffer);
+		buffer.clear();
+	}
+
+
+	/**
+	 * Check a constant read by the Lexer, exit on a syntax error
+	 * @param value The constant or Code.INVALID if it is out of range
+	 * @return The constant
 	 */
-	private boolean isInteger(String s) {
-		try { Integer.parseInt(s); }
-		catch (NumberFormatException ex) { return false; }
-		return true;
+	private int checkConstant(int value) {
+		if (value == Code.INVALID) {
+			System.out.println("[Error] Syntax error in the .asm file!");
+			System.exit(-1);
+		}
+		return value;
 	}
 
 
@@ -163,16 +294,7 @@ public class Parser {
 	 * @param valueAsDecimal Instruction as decimal
 	 */
 	private void translateAInstruction(int valueAsDecimal) {
-		String valueAsBinary = Integer.toBinaryString(valueAsDecimal);	
-		
-		// A-Instructions have a leading 0
-		String translatedCommand = "0";
-		for (int i = 0; i < 16 - "0".length() - valueAsBinary.length(); i++) {
-			// Fill leading places with 0s
-			translatedCommand += "0";	
-		}
-		translatedCommand += valueAsBinary;
-		commandsTranslated.add(translatedCommand);
+		addTranslated(encodeAInstruction(valueAsDecimal));
 	}
 	
 
@@ -181,47 +303,48 @@ public class Parser {
 	 * @param instruction The instruction to translate
 	 */
 	private void translateCInstruction(String instruction) {
-		// Init with all 0s, if parts are not present in instruction
-		String destinationTranslated = "000";
-		String compareTranslated = "0000000";
-		String jumpTranslated = "000";
-
-		// Get Destination-Part
-		if (instruction.contains("=")) {
-			String destPart = instruction.split("=")[0].trim();
-			if (Token.DEST.containsKey(destPart))
-				destinationTranslated = Token.DEST.get(destPart);
-
-			// Strip Dest-Part, to easily get the other parts
-			instruction = instruction.split("=")[1].trim();
-		}
+		addTranslated(encodeCInstruction(instruction));
+	}
+
 
-		// Get Jump-Part
-		if (instruction.contains(";")) {
-			String jumpPart = instruction.split(";")[1].trim();
-			if (Token.JUMP.containsKey(jumpPart))
-				jumpTranslated = Token.JUMP.get(jumpPart);
-			
-			// Strip jump part, to easily get the other parts
-			instruction = instruction.split(";")[0].trim();
+	/**
+	 * Encode A-Instruction, exit if the address does not fit into 15 bit
+	 * @param value Address or constant
+	 * @return The instruction word
+	 */
+	private int encodeAInstruction(int value) {
+		int word = Code.encodeA(value);
+		if (word == Code.INVALID) {
+			System.out.println("[Error] Address " + value + " is out of range!");
+			System.exit(-1);
 		}
+		return word;
+	}
+
 
-		// Get Comp-Part, has to be present!
-		if (Token.COMP_0.containsKey(instruction))
-			compareTranslated = Token.COMP_0.get(instruction);
-		else if (Token.COMP_1.containsKey(instruction))
-			compareTranslated = Token.COMP_1.get(instruction);
-		else {
+	/**
+	 * Encode C-Instruction, exit on a syntax error
+	 * @param instruction The instruction to encode
+	 * @return The instruction word
+	 */
+	private int encodeCInstruction(String instruction) {
+		int word = Code.encodeC(instruction);
+		if (word == Code.INVALID) {
 			System.out.println("[Error] Syntax error in the .asm file!");
 			System.exit(-1);
 		}
+		return word;
+	}
+
 
-		commandsTranslated.add(
-			"111" + 
-			compareTranslated + 
-			destinationTranslated + 
-			jumpTranslated
-		);
+	/**
+	 * Append an instruction word to the Translated-List
+	 * @param word The instruction word
+	 */
+	private void addTranslated(int word) {
+		if (translatedCount == commandsTranslated.length)
+			commandsTranslated = Arrays.copyOf(commandsTranslated, commandsTranslated.length * 2);
+		commandsTranslated[translatedCount++] = (short) word;
 	}
 
 
@@ -229,22 +352,25 @@ public class Parser {
 	 * Write translated commands to output file
 	 */
 	private void writeToFile() {
-		// Set .hack file-extension
-		int lastDotIndex = filename.lastIndexOf(".");
-		String outputFilename = filename.substring(0, lastDotIndex) + ".hack";
-
-		try (
-			BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(outputFilename))
-		) {
-			for (String command : commandsTranslated) {
-				bufferedWriter.append(command.trim());
-				bufferedWriter.append(System.lineSeparator());
-			}
+		try {
+			if (binaryOutput) RomWriter.writeBinary(commandsTranslated, translatedCount, getOutputFilename());
+			else RomWriter.writeAscii(commandsTranslated, translatedCount, getOutputFilename());
 		}
 		catch (IOException e) { e.printStackTrace(); }
 	}
 
 
+	/**
+	 * Get name of the output file
+	 * @return Input filename with .hack or .rom file-extension
+	 */
+	private String getOutputFilename() {
+		// Set .hack or .rom file-extension
+		int lastDotIndex = filename.lastIndexOf(".");
+		return filename.substring(0, lastDotIndex) + (binaryOutput ? ".rom" : ".hack");
+	}
+
+
 	/* GETTERS AND SETTERS */
 	public String getFilename() { return filename; }
 	public void setFilename(String value) { filename = value; }
@@ -252,9 +378,21 @@ public class Parser {
 	public ArrayList<String> getCommands() { return commands; }
 	public void setCommands(ArrayList<String> value) { commands = value; }
 
-	public ArrayList<String> getCommandsTranslated() { return commandsTranslated; }
-	public void setCommandsTranslated(ArrayList<String> value) { commandsTranslated = value; }
+	public short[] getCommandsTranslated() { return Arrays.copyOf(commandsTranslated, translatedCount); }
+	public void setCommandsTranslated(short[] value) {
+		commandsTranslated = Arrays.copyOf(value, Math.max(value.length, 1));
+		translatedCount = value.length;
+	}
 
 	public SymbolTable getSymbolTable() { return symbolTable; }
 	public void setSymbolTable(SymbolTable value) { symbolTable = value; }
+
+	public Token.ParseMode getMode() { return mode; }
+	public void setMode(Token.ParseMode value) { mode = value; }
+
+	public boolean isBinaryOutput() { return binaryOutput; }
+	public void setBinaryOutput(boolean value) { binaryOutput = value; }
+
+	public boolean isOptimizing() { return optimizing; }
+	public void setOptimizing(boolean value) { optimizing = value; }
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+/**
+ * PeepholeOptimizer
+ * Removes redundant instructions from Hack-Assembly before labels are resolved
+ *
+ * Every rule only matches instructions that follow each other directly,
+ * a label in between always stops a match, because it can be a jump target.
+ * The rules keep the values of A, D and the memory as seen by every later
+ * instruction, so a program behaves the same with fewer instructions:
+ *
+ *   @X ... @X             The second @X is dropped while A still holds X
+ *   M=M+1 / M=M-1         Both are dropped, in either order
+ *   M=M-1 / A=M           Become AM=M-1, the same for M=M+1
+ *   M=D / D=M             D=M is dropped, the same for D=M / M=D
+ *   @L / 0;JMP / (L)      The jump to the next instruction is dropped,
+ *                         when the next instruction loads A anyway
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+
+import java.util.ArrayList;
+
+
+public class PeepholeOptimizer {
+
+	/**
+	 * Apply all rules until none matches anymore
+	 * @param commands Commands without whitespace and comments, labels included
+	 * @return The optimized commands
+	 */
+	public static ArrayList<String> optimize(ArrayList<String> commands) {
+		int size;
+		do {
+			size = commands.size();
+			commands = rewriteWindows(commands);
+			commands = dropReloads(commands);
+		} while (commands.size() < size);
+
+		return commands;
+	}
+
+
+	/**
+	 * Drop A-Instructions that load the value A already holds
+	 */
+	private static ArrayList<String> dropReloads(ArrayList<String> commands) {
+		ArrayList<String> optimized = new ArrayList<>(commands.size());
+		String knownA = null;
+
+		for (String command : commands) {
+			if (isLabel(command)) knownA = null;
+			else if (isAInstruction(command)) {
+				if (command.equals(knownA)) continue;
+				knownA = command;
+			}
+			else if (writesA(command)) knownA = null;
+
+			optimized.add(command);
+		}
+		return optimized;
+	}
+
+
+	/**
+	 * Rewrite short sequences of instructions
+	 */
+	private static ArrayList<String> rewriteWindows(ArrayList<String> commands) {
+		ArrayList<String> optimized = new ArrayList<>(commands.size());
+
+		for (int i = 0; i < commands.size(); i++) {
+			String command = commands.get(i);
+			String next = (i + 1 < commands.size()) ? commands.get(i + 1) : "";
+
+			// Increment and decrement of the same register cancel out
+			if (
+				(command.equals("M=M+1") && next.equals("M=M-1")) ||
+				(command.equals("M=M-1") && next.equals("M=M+1"))
+			) {
+				i++;
+				continue;
+			}
+
+			// Change a pointer and follow it in one instruction
+			if ((command.equals("M=M-1") || command.equals("M=M+1")) && next.equals("A=M")) {
+				optimized.add("A" + command);
+				i++;
+				continue;
+			}
+
+			// The value just stored or loaded is already in both places
+			if (
+				(command.equals("M=D") && next.equals("D=M")) ||
+				(command.equals("D=M") && next.equals("M=D"))
+			) {
+				optimized.add(command);
+				i++;
+				continue;
+			}
+
+			// Jump to the next instruction, A is loaded again right after it
+			if (
+				isAInstruction(command) &&
+				i + 2 < commands.size() &&
+				isJumpWithoutDestination(next) &&
+				commands.get(i + 2).equals("(" + command.substring(1) + ")") &&
+				isANextLoaded(commands, i + 2)
+			) {
+				i++;
+				continue;
+			}
+
+			optimized.add(command);
+		}
+		return optimized;
+	}
+
+
+	/**
+	 * Check if the first instruction after the labels at index is an A-Instruction,
+	 * so the value of A at index does not matter
+	 */
+	private static boolean isANextLoaded(ArrayList<String> commands, int index) {
+		for (int i = index; i < commands.size(); i++) {
+			if (isLabel(commands.get(i))) continue;
+			return isAInstruction(commands.get(i));
+		}
+		return true;
+	}
+
+
+	/**
+	 * Check for a jump like 0;JMP or D;JGT, which changes nothing but the PC
+	 */
+	private static boolean isJumpWithoutDestination(String command) {
+		return !isAInstruction(command) && !isLabel(command) &&
+			command.indexOf(';') != -1 && command.indexOf('=') == -1;
+	}
+
+
+	/**
+	 * Check if a C-Instruction has A as destination
+	 */
+	private static boolean writesA(String command) {
+		int equalsIndex = command.indexOf('=');
+		return equalsIndex != -1 && command.substring(0, equalsIndex).indexOf('A') != -1;
+	}
+
+
+	private static boolean isAInstruction(String command) {
+		return command.startsWith("@");
+	}
+
+
+	private static boolean isLabel(String command) {
+		return command.startsWith("(");
+	}
+}
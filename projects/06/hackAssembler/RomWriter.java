@@ -0,0 +1,121 @@
+/**
+ * RomWriter
+ * Writes and reads assembled programs
+ *
+ * The .hack format has one instruction per line as 16 characters '0' and '1'.
+ * The packed .rom format starts with a header of three big-endian ints:
+ * the magic number "HROM", the instruction count and the CRC-32 of the words,
+ * followed by every instruction as a big-endian 16 bit word.
+ * Both are rendered into one buffer and written with a single channel write.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+public class RomWriter {
+	public static final int MAGIC = 0x48524F4D;   // "HROM"
+	public static final int HEADER_LENGTH = 12;
+
+
+	/**
+	 * Write the program as text, one instruction per line
+	 * @param words The program
+	 * @param count Number of instructions in words
+	 * @param filename Name of the .hack file
+	 */
+	public static void writeAscii(short[] words, int count, String filename) throws IOException {
+		byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+		int recordLength = 16 + lineSeparator.length;
+
+		byte[] bytes = new byte[count * recordLength];
+		for (int i = 0; i < count; i++) {
+			int offset = i * recordLength;
+			Code.render(words[i], bytes, offset);
+			System.arraycopy(lineSeparator, 0, bytes, offset + 16, lineSeparator.length);
+		}
+
+		write(ByteBuffer.wrap(bytes), filename);
+	}
+
+
+	/**
+	 * Write the program in the packed format
+	 * @param words The program
+	 * @param count Number of instructions in words
+	 * @param filename Name of the .rom file
+	 */
+	public static void writeBinary(short[] words, int count, String filename) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + count * 2);
+		buffer.putInt(MAGIC);
+		buffer.putInt(count);
+		buffer.putInt(0);   // Checksum, set below
+		buffer.asShortBuffer().put(words, 0, count);
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), HEADER_LENGTH, count * 2);
+		buffer.putInt(8, (int) crc.getValue());
+
+		buffer.rewind();
+		write(buffer, filename);
+	}
+
+
+	/**
+	 * Read a program in the packed format
+	 * @param filename Name of the .rom file
+	 * @return The program
+	 * @throws IOException If the file is no .rom file or the checksum does not match
+	 */
+	public static short[] readBinary(String filename) throws IOException {
+		try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) in.size());
+			while (buffer.hasRemaining() && in.read(buffer) != -1);
+			buffer.flip();
+
+			if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC)
+				throw new IOException("Not a .rom file: " + filename);
+
+			int count = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (count < 0 || buffer.remaining() != count * 2)
+				throw new IOException("Truncated .rom file: " + filename);
+
+			CRC32 crc = new CRC32();
+			crc.update(buffer.array(), HEADER_LENGTH, count * 2);
+			if ((int) crc.getValue() != checksum)
+				throw new IOException("Checksum mismatch in .rom file: " + filename);
+
+			short[] words = new short[count];
+			buffer.asShortBuffer().get(words);
+			return words;
+		}
+	}
+
+
+	/**
+	 * Write the buffer to a new file
+	 * @param buffer Bytes to write
+	 * @param filename Name of the file
+	 */
+	private static void write(ByteBuffer buffer, String filename) throws IOException {
+		try (
+			FileChannel out = FileChannel.open(
+				Paths.get(filename),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING
+			)
+		) {
+			while (buffer.hasRemaining()) out.write(buffer);
+		}
+	}
+}
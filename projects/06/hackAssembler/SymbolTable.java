@@ -1,16 +1,25 @@
 /**
  * SymbolTable
  * Stores Hack-Assembly symbols
- * 
+ *
+ * Open addressing table from symbol to int, no boxing and a single hash
+ * computation per lookup. Symbols can be looked up as a slice of a larger
+ * character sequence, so the caller does not need to create a String.
+ *
  * @author Sirat Ahmadi
- * @version 1.0
+ * @version 1.1
  */
 
 import java.util.HashMap;
 import java.util.Map;
 
 public class SymbolTable {
-	private Map<String, Integer> table;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private String[] keys;
+	private int[] hashes;
+	private int[] values;
+	private int size;
 
 
 	/**
@@ -18,44 +27,151 @@ public class SymbolTable {
 	 * Init Symbol-Table with default symbols
 	 */
 	public SymbolTable() {
-		this.table = new HashMap<String, Integer>();
+		this.keys = new String[INITIAL_CAPACITY];
+		this.hashes = new int[INITIAL_CAPACITY];
+		this.values = new int[INITIAL_CAPACITY];
+		this.size = 0;
 
 		// Insert R0: 0, R1: 1, ..., R15: 15
-		for (int i = 0; i <= 15; i++) { this.table.put("R" + i, i); }
+		for (int i = 0; i <= 15; i++) { this.addSymbol("R" + i, i); }
 
-		this.table.put("SCREEN", 16384);
-		this.table.put("KBD", 24576);
+		this.addSymbol(Token.SCREEN, Token.SCREEN_VALUE);
+		this.addSymbol(Token.KBD, Token.KBD_VALUE);
 
-		this.table.put("SP", 0);
-		this.table.put("LCL", 1);
-		this.table.put("ARG", 2);		
-		this.table.put("THIS", 3);
-		this.table.put("THAT", 4);
+		this.addSymbol(Token.SP, Token.SP_VALUE);
+		this.addSymbol(Token.LCL, Token.LCL_VALUE);
+		this.addSymbol(Token.ARG, Token.ARG_VALUE);
+		this.addSymbol(Token.THIS, Token.THIS_VALUE);
+		this.addSymbol(Token.THAT, Token.THAT_VALUE);
 	}
 
 
 	/**
-	 * Add a symbol to the table
+	 * Add a symbol to the table, an existing symbol gets the new value
 	 * @param key
 	 * @param value
 	 */
 	public void addSymbol(String key, int value) {
-		table.put(key, value);
+		int hash = hash(key, 0, key.length());
+		int slot = find(key, 0, key.length(), hash);
+
+		if (keys[slot] == null) {
+			keys[slot] = key;
+			hashes[slot] = hash;
+			size++;
+		}
+		values[slot] = value;
+
+		// Keep the table at most half full, so probe sequences stay short
+		if (size * 2 > keys.length) resize();
 	}
 
 
 	/**
 	 * Get value of symbol
 	 * @param key
-	 * @return Value of the given key
+	 * @return Value of the given key, -1 if the key does not exist
 	 */
 	public int getSymbolValue(String key) {
-		if (table.containsKey(key)) return table.get(key);
-		return -1;
+		return getSymbolValue(key, 0, key.length());
+	}
+
+
+	/**
+	 * Get value of symbol given as a slice of a character sequence
+	 * @param s Characters holding the symbol
+	 * @param start Index of the first character of the symbol
+	 * @param end Index after the last character of the symbol
+	 * @return Value of the given key, -1 if the key does not exist
+	 */
+	public int getSymbolValue(CharSequence s, int start, int end) {
+		int slot = find(s, start, end, hash(s, start, end));
+		return (keys[slot] != null) ? values[slot] : -1;
+	}
+
+
+	/**
+	 * Number of symbols in the table
+	 * @return Symbol count
+	 */
+	public int size() { return size; }
+
+
+	/**
+	 * Find the slot of a symbol or the empty slot where it belongs
+	 */
+	private int find(CharSequence s, int start, int end, int hash) {
+		int mask = keys.length - 1;
+		int slot = hash & mask;
+
+		while (keys[slot] != null) {
+			if (hashes[slot] == hash && matches(keys[slot], s, start, end)) return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+
+	/**
+	 * Compare a stored key with a slice, without creating a String
+	 */
+	private static boolean matches(String key, CharSequence s, int start, int end) {
+		if (key.length() != end - start) return false;
+		for (int i = 0; i < key.length(); i++)
+			if (key.charAt(i) != s.charAt(start + i)) return false;
+		return true;
+	}
+
+
+	/**
+	 * Hash of a slice, spread so that the low bits used for the slot differ
+	 */
+	private static int hash(CharSequence s, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) h = 31 * h + s.charAt(i);
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+
+	/**
+	 * Double the capacity and reinsert all symbols
+	 */
+	private void resize() {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldValues = values;
+
+		keys = new String[oldKeys.length * 2];
+		hashes = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == null) continue;
+
+			int slot = oldHashes[i] & mask;
+			while (keys[slot] != null) slot = (slot + 1) & mask;
+
+			keys[slot] = oldKeys[i];
+			hashes[slot] = oldHashes[i];
+			values[slot] = oldValues[i];
+		}
 	}
 
-	
+
 	/* GETTERS AND SETTERS */
-	public Map<String, Integer> getTable() { return table; }
-	public void setTable(Map<String, Integer> value) { table = value; }
-}
\ No newline at end of file
+	public Map<String, Integer> getTable() {
+		Map<String, Integer> table = new HashMap<>();
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != null) table.put(keys[i], values[i]);
+		return table;
+	}
+	public void setTable(Map<String, Integer> value) {
+		keys = new String[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+		size = 0;
+		for (Map.Entry<String, Integer> entry : value.entrySet()) addSymbol(entry.getKey(), entry.getValue());
+	}
+}
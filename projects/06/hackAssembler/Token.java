@@ -14,6 +14,18 @@ public class Token {
 	public static final String EMPTY = "";
 	public static final String SPACE = "\\s+";
 	public static final String SINGLE_COMMENT = "//";
+
+	public static enum ParseMode {
+		TWO_PASS,
+		STREAMING,
+		PARALLEL
+	}
+
+	public static enum CommandType {
+		A_INSTRUCTION,
+		C_INSTRUCTION,
+		LABEL
+	}
 	
 	public static final String SCREEN = "SCREEN";
 	public static final int SCREEN_VALUE = 16384;
@@ -91,4 +103,14 @@ public class Token {
 		"D&M", "1000000",
 		"D|M", "1010101"
 	);
+
+	// Operands of commutative operations in the other order, e.g. M=M+D
+	public static final Map<String, String> COMP_ALIASES = Map.of(
+		"A+D", "0000010",
+		"A&D", "0000000",
+		"A|D", "0010101",
+		"M+D", "1000010",
+		"M&D", "1000000",
+		"M|D", "1010101"
+	);
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+// File name: projects/08/FunctionCalls/TailCallTest/TailCallTest.tst
+
+// Translate with: VMTranslator -tail-calls -eliminate-dead TailCallTest
+// Main.g is only called by a tail call, removing it would break the program.
+
+load TailCallTest.asm,
+output-file TailCallTest.out,
+compare-to TailCallTest.cmp,
+output-list RAM[0]%D1.6.1 RAM[261]%D1.6.1;
+
+set RAM[0] 256,
+
+repeat 1000 {
+  ticktock;
+}
+
+output;
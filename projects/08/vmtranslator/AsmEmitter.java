@@ -0,0 +1,53 @@
+package vmtranslator;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+
+/**
+ * AsmEmitter
+ * Writes the program as Hack-Assembly text into an .asm-file
+ *
+ * @author Sirat Ahmadi
+ * @version 1.1
+ */
+public class AsmEmitter implements Emitter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BufferedWriter writer;
+
+
+    /**
+     * Constructor
+     *
+     * @param filename Name of the .asm-file
+     */
+    public AsmEmitter(String filename) throws IOException {
+        this.writer = new BufferedWriter(new FileWriter(filename), BUFFER_SIZE);
+    }
+
+
+    @Override
+    public void address(String symbol) throws IOException {
+        writer.append('@').append(symbol).append(System.lineSeparator());
+    }
+
+
+    @Override
+    public void compute(String instruction) throws IOException {
+        writer.append(instruction).append(System.lineSeparator());
+    }
+
+
+    @Override
+    public void label(String label) throws IOException {
+        writer.append('(').append(label).append(')').append(System.lineSeparator());
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
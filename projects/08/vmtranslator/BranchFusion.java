@@ -0,0 +1,72 @@
+package vmtranslator;
+
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Segment;
+
+
+/**
+ * BranchFusion
+ * Fuses comparisons with the following if-goto into a single conditional jump
+ * 
+ * The Jack compiler tests conditions with eq, gt or lt, often followed by
+ * not, and then if-goto. The boolean is pushed only to be popped and tested
+ * again right away. A fused command compares x and y and jumps directly:
+ * 
+ *   eq / if-goto L          if-eq L
+ *   eq / not / if-goto L    if-ne L
+ *   gt / if-goto L          if-gt L
+ *   gt / not / if-goto L    if-le L
+ *   lt / if-goto L          if-lt L
+ *   lt / not / if-goto L    if-ge L
+ * 
+ * Labels are commands of their own, so a label between the commands
+ * always stops a match.
+ * 
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+public class BranchFusion {
+
+    /**
+     * Fuse all matching commands
+     * 
+     * @param commands The commands of a translation unit
+     * @param fuseOrder Fuse gt and lt as well, their fused jump tests x-y,
+     *                  which overflows for operands of different signs
+     * @return The fused commands
+     */
+    public static CommandList fuse(CommandList commands, boolean fuseOrder) {
+        CommandList fused = new CommandList();
+
+        for (int i = 0; i < commands.size(); i++) {
+            Opcode op = commands.getOpcode(i);
+            boolean comparison = op == Opcode.EQ || (fuseOrder && (op == Opcode.GT || op == Opcode.LT));
+            boolean negated = i + 1 < commands.size() && commands.getOpcode(i + 1) == Opcode.NOT;
+            int branch = negated ? i + 2 : i + 1;
+
+            if (!comparison || branch >= commands.size() || commands.getOpcode(branch) != Opcode.IF_GOTO) {
+                fused.add(commands, i);
+                continue;
+            }
+
+            fused.add(
+                fusedOpcode(op, negated),
+                Segment.NONE,
+                fused.intern(commands.getSymbolName(branch)),
+                CommandList.NO_ARGUMENT
+            );
+            i = branch;
+        }
+        return fused;
+    }
+
+
+    /**
+     * Get the fused opcode of a comparison
+     */
+    private static Opcode fusedOpcode(Opcode op, boolean negated) {
+        if (op == Opcode.EQ) return negated ? Opcode.IF_NE : Opcode.IF_EQ;
+        else if (op == Opcode.GT) return negated ? Opcode.IF_LE : Opcode.IF_GT;
+        else return negated ? Opcode.IF_GE : Opcode.IF_LT;
+    }
+}
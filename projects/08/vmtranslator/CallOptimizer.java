@@ -0,0 +1,346 @@
+package vmtranslator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Segment;
+
+
+/**
+ * CallOptimizer
+ * Inlines small functions and turns tail calls into jumps for the whole program
+ *
+ * A function is inlined when it calls no other function, has at most
+ * MAX_INLINE_COMMANDS commands and is always called with the same number of
+ * arguments. Its arguments and locals are moved to free temp slots, labels
+ * get a name of their own at every call site and every return becomes a jump
+ * to the end of the inlined body. THIS and THAT are saved in temp slots as
+ * well when the function changes them, as a return would restore them.
+ * Functions using statics are only inlined into their own unit, functions
+ * using arguments or locals beyond their arity or local count are not
+ * inlined. A function inlined at all of its call sites is removed.
+ *
+ * A call directly followed by return becomes a tail-call, which reuses the
+ * frame of the current function instead of building a new one. The frame
+ * keeps its place, so this is only done when the current function is always
+ * called with as many arguments as the tail call passes.
+ *
+ * Like the code of the Jack compiler, functions have to return with only
+ * the return value on their part of the stack, and the temp segment must
+ * not hold values across a call.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.1
+ */
+public class CallOptimizer {
+    public static final int MAX_INLINE_COMMANDS = 12;
+
+    private static final String ENTRY = "Sys.init";
+    private static final int TEMP_SIZE = 8;
+    private static final int UNKNOWN_ARITY = -1;
+
+    private boolean inlining;
+    private boolean tailCalls;
+
+    private List<CommandList> units;
+
+    // Key: function name, Value: unit index, first and behind last command
+    private Map<String, int[]> bodies;
+
+    // Key: function name, Value: argument count of all its calls or UNKNOWN_ARITY
+    private Map<String, Integer> arities;
+
+    // Number of inlined bodies, to name their labels
+    private int inlineCount;
+
+    // Functions inlined at one call site at least
+    private Set<String> inlinedFunctions;
+
+
+    /**
+     * Constructor
+     *
+     * @param units The commands of all translation units, in translation order
+     * @param inlining Inline small functions
+     * @param tailCalls Replace tail calls
+     */
+    public CallOptimizer(List<CommandList> units, boolean inlining, boolean tailCalls) {
+        this.units = units;
+        this.inlining = inlining;
+        this.tailCalls = tailCalls;
+
+        this.bodies = new HashMap<>();
+        this.arities = new HashMap<>();
+        this.inlineCount = 0;
+        this.inlinedFunctions = new HashSet<>();
+    }
+
+
+    /**
+     * Optimize the calls of all units
+     *
+     * @return The commands of the units with optimized calls
+     */
+    public List<CommandList> optimize() {
+        findBodiesAndArities();
+
+        List<CommandList> optimizedUnits = new ArrayList<>(units.size());
+        for (int unit = 0; unit < units.size(); unit++) {
+            CommandList commands = units.get(unit);
+            CommandList optimized = new CommandList();
+            String function = null;
+
+            for (int i = 0; i < commands.size(); i++) {
+                Opcode op = commands.getOpcode(i);
+                if (op == Opcode.FUNCTION) function = commands.getSymbolName(i);
+
+                if (op != Opcode.CALL) {
+                    optimized.add(commands, i);
+                    continue;
+                }
+
+                String callee = commands.getSymbolName(i);
+                int argumentCount = commands.getArgument(i);
+
+                if (inlining && isInlinable(callee, unit)) {
+                    inline(callee, optimized);
+                }
+                else if (
+                    tailCalls && function != null &&
+                    i + 1 < commands.size() && commands.getOpcode(i + 1) == Opcode.RETURN &&
+                    arities.getOrDefault(function, UNKNOWN_ARITY) == argumentCount
+                ) {
+                    optimized.add(Opcode.TAIL_CALL, Segment.NONE, optimized.intern(callee), argumentCount);
+                    i++;
+                }
+                else optimized.add(commands, i);
+            }
+            optimizedUnits.add(optimized);
+        }
+
+        return removeInlinedFunctions(optimizedUnits);
+    }
+
+
+    /**
+     * Remove the inlined functions that are not called anymore
+     *
+     * @param optimizedUnits The units with optimized calls
+     * @return The units without those functions
+     */
+    private List<CommandList> removeInlinedFunctions(List<CommandList> optimizedUnits) {
+        Set<String> called = new HashSet<>();
+        for (CommandList commands : optimizedUnits) {
+            for (int i = 0; i < commands.size(); i++) {
+                Opcode op = commands.getOpcode(i);
+                if (op == Opcode.CALL || op == Opcode.TAIL_CALL) called.add(commands.getSymbolName(i));
+            }
+        }
+
+        // Without Sys.init, the program starts in its first function
+        String entry = bodies.containsKey(ENTRY) ? ENTRY : firstFunction();
+
+        List<CommandList> liveUnits = new ArrayList<>(optimizedUnits.size());
+        for (CommandList commands : optimizedUnits) {
+            CommandList liveCommands = new CommandList();
+            boolean removed = false;
+
+            for (int i = 0; i < commands.size(); i++) {
+                if (commands.getOpcode(i) == Opcode.FUNCTION) {
+                    String function = commands.getSymbolName(i);
+                    removed = inlinedFunctions.contains(function) && !called.contains(function) && !function.equals(entry);
+                }
+                if (!removed) liveCommands.add(commands, i);
+            }
+            liveUnits.add(liveCommands);
+        }
+        return liveUnits;
+    }
+
+
+    /**
+     * Get the first function of the program, null if there are no functions
+     */
+    private String firstFunction() {
+        for (CommandList commands : units) {
+            for (int i = 0; i < commands.size(); i++)
+                if (commands.getOpcode(i) == Opcode.FUNCTION) return commands.getSymbolName(i);
+        }
+        return null;
+    }
+
+
+    /**
+     * Find the body of every function and the argument count of its calls
+     */
+    private void findBodiesAndArities() {
+        for (int unit = 0; unit < units.size(); unit++) {
+            CommandList commands = units.get(unit);
+            int[] body = null;
+
+            for (int i = 0; i < commands.size(); i++) {
+                if (commands.getOpcode(i) == Opcode.CALL) addArity(commands.getSymbolName(i), commands.getArgument(i));
+                if (commands.getOpcode(i) != Opcode.FUNCTION) continue;
+
+                if (body != null) body[2] = i;
+                body = new int[] { unit, i, commands.size() };
+                bodies.put(commands.getSymbolName(i), body);
+            }
+        }
+
+        // The bootstrap calls Sys.init without arguments
+        if (bodies.containsKey(ENTRY)) addArity(ENTRY, 0);
+    }
+
+
+    /**
+     * Record the argument count of a call
+     */
+    private void addArity(String function, int argumentCount) {
+        Integer arity = arities.get(function);
+        if (arity == null) arities.put(function, argumentCount);
+        else if (arity != argumentCount) arities.put(function, UNKNOWN_ARITY);
+    }
+
+
+    /**
+     * Check if a call of the function can be replaced by its body
+     *
+     * @param function The called function
+     * @param unit Index of the calling unit
+     */
+    private boolean isInlinable(String function, int unit) {
+        int[] body = bodies.get(function);
+        if (body == null || arities.get(function) == UNKNOWN_ARITY) return false;
+        if (body[2] - body[1] - 1 > MAX_INLINE_COMMANDS) return false;
+
+        CommandList commands = units.get(body[0]);
+        for (int i = body[1] + 1; i < body[2]; i++) {
+            Opcode op = commands.getOpcode(i);
+            if (op == Opcode.CALL || op == Opcode.FUNCTION) return false;
+            if (commands.getSegment(i) == Segment.STATIC && body[0] != unit) return false;
+
+            // Beyond the arguments and locals there are no temp slots
+            if (commands.getSegment(i) == Segment.ARGUMENT && commands.getArgument(i) >= arities.get(function))
+                return false;
+            if (commands.getSegment(i) == Segment.LOCAL && commands.getArgument(i) >= commands.getArgument(body[1]))
+                return false;
+        }
+
+        return tempSlots(function) != null;
+    }
+
+
+    /**
+     * Assign free temp slots to the arguments, the locals and the saved pointers
+     *
+     * @return Slots of the arguments, then the locals, then pointer 0 and 1
+     *         with -1 when the pointer is not changed, null when the slots are not enough
+     */
+    private int[] tempSlots(String function) {
+        int[] body = bodies.get(function);
+        CommandList commands = units.get(body[0]);
+        int argumentCount = arities.get(function);
+        int localCount = commands.getArgument(body[1]);
+
+        BitSet used = new BitSet(TEMP_SIZE);
+        boolean[] pointerChanged = new boolean[2];
+        for (int i = body[1] + 1; i < body[2]; i++) {
+            if (commands.getSegment(i) == Segment.TEMP) used.set(commands.getArgument(i));
+            if (commands.getSegment(i) == Segment.POINTER && commands.getOpcode(i) == Opcode.POP)
+                pointerChanged[commands.getArgument(i)] = true;
+        }
+
+        int[] slots = new int[argumentCount + localCount + 2];
+        int slot = used.nextClearBit(0);
+        for (int i = 0; i < slots.length; i++) {
+            boolean saved = i < argumentCount + localCount || pointerChanged[i - argumentCount - localCount];
+            if (!saved) {
+                slots[i] = -1;
+                continue;
+            }
+
+            if (slot >= TEMP_SIZE) return null;
+            slots[i] = slot;
+            slot = used.nextClearBit(slot + 1);
+        }
+        return slots;
+    }
+
+
+    /**
+     * Append the body of a function in place of its call
+     *
+     * @param function The called function
+     * @param optimized List of the rewritten commands
+     */
+    private void inline(String function, CommandList optimized) {
+        int[] body = bodies.get(function);
+        CommandList commands = units.get(body[0]);
+        int argumentCount = arities.get(function);
+        int localCount = commands.getArgument(body[1]);
+        int[] slots = tempSlots(function);
+        inlinedFunctions.add(function);
+        String suffix = "." + (inlineCount++);
+        String end = function + "$return" + suffix;
+        boolean endUsed = false;
+
+        // Arguments are on the stack, the last one on top
+        for (int i = argumentCount - 1; i >= 0; i--)
+            optimized.add(Opcode.POP, Segment.TEMP, CommandList.NO_SYMBOL, slots[i]);
+
+        // Locals start as 0
+        for (int i = 0; i < localCount; i++) {
+            optimized.add(Opcode.PUSH, Segment.CONSTANT, CommandList.NO_SYMBOL, 0);
+            optimized.add(Opcode.POP, Segment.TEMP, CommandList.NO_SYMBOL, slots[argumentCount + i]);
+        }
+
+        // Save THIS and THAT
+        for (int pointer = 0; pointer < 2; pointer++) {
+            int slot = slots[argumentCount + localCount + pointer];
+            if (slot == -1) continue;
+            optimized.add(Opcode.PUSH, Segment.POINTER, CommandList.NO_SYMBOL, pointer);
+            optimized.add(Opcode.POP, Segment.TEMP, CommandList.NO_SYMBOL, slot);
+        }
+
+        for (int i = body[1] + 1; i < body[2]; i++) {
+            Opcode op = commands.getOpcode(i);
+            Segment segment = commands.getSegment(i);
+            int argument = commands.getArgument(i);
+
+            if (op == Opcode.RETURN) {
+                // The last return falls through to the end
+                if (i + 1 < body[2]) {
+                    optimized.add(Opcode.GOTO, Segment.NONE, optimized.intern(end), CommandList.NO_ARGUMENT);
+                    endUsed = true;
+                }
+            }
+            else if (op == Opcode.LABEL || op == Opcode.GOTO || op == Opcode.IF_GOTO) {
+                String label = function + "$" + commands.getSymbolName(i) + suffix;
+                optimized.add(op, Segment.NONE, optimized.intern(label), CommandList.NO_ARGUMENT);
+            }
+            else if (segment == Segment.ARGUMENT) {
+                optimized.add(op, Segment.TEMP, CommandList.NO_SYMBOL, slots[argument]);
+            }
+            else if (segment == Segment.LOCAL) {
+                optimized.add(op, Segment.TEMP, CommandList.NO_SYMBOL, slots[argumentCount + argument]);
+            }
+            else optimized.add(commands, i);
+        }
+        if (endUsed) optimized.add(Opcode.LABEL, Segment.NONE, optimized.intern(end), CommandList.NO_ARGUMENT);
+
+        // Restore THIS and THAT, the return value stays on top
+        for (int pointer = 0; pointer < 2; pointer++) {
+            int slot = slots[argumentCount + localCount + pointer];
+            if (slot == -1) continue;
+            optimized.add(Opcode.PUSH, Segment.TEMP, CommandList.NO_SYMBOL, slot);
+            optimized.add(Opcode.POP, Segment.POINTER, CommandList.NO_SYMBOL, pointer);
+        }
+    }
+}
@@ -1,14 +1,16 @@
 package vmtranslator;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
-import vmtranslator.Token.OpType;
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Option;
+import vmtranslator.Token.Segment;
 
 
 /**
@@ -16,19 +18,54 @@ import vmtranslator.Token.OpType;
  * Translates command parts into Hack-Assembly
  * 
  * @author Sirat Ahmadi
- * @version 1.1
+ * @version 1.15
  */
 public class CodeWriter {
+    // Largest offset of local, argument, this and that added with A=A+1
+    private static final int SMALL_OFFSET = 3;
+
+    // Label namespace of the bootstrap code
+    private static final String BOOTSTRAP_UNIT = "$Bootstrap";
+
+    // Names of the code outside of functions and units in the cost report
+    private static final String END_CODE = "$End";
+    private static final String COMPARISON_RESULTS_CODE = "$CMP";
+
+    // Operations with a shared routine, in order of the program
+    private static final Opcode[] ROUTINES = { Opcode.CALL, Opcode.RETURN, Opcode.EQ, Opcode.GT, Opcode.LT };
+
     private String fileName;
     private String filePath;
-    private String fileNameForStatics;
+    private String unitName;
     private String functionName;
     
+    // Counters of the current unit, labels are unit$ret.N and unit$cmp.N
     private int returnCounter;
     private int comparisonCount;
 
+    private EnumSet<Option> options;
+
+    // With top-of-stack caching, the top of the stack is in D and not in RAM
+    private boolean topInD;
+
+    // Operations whose shared routine is jumped to by the translated commands
+    private EnumSet<Opcode> usedRoutines;
+
+    // Key: operation, Value: instructions of its shared routine
+    private EnumMap<Opcode, Integer> routineLengths;
+
+    // Code size and cycles per function, instructions are counted for costName
+    private CostReport costs;
+    private String costName;
+
+    // Length of the shared routines the current command jumps to
+    private int routineCycles;
+
     List<String> translatedCommands;
 
+    // Output of a streaming CodeWriter, null otherwise
+    private Emitter emitter;
+
 
     /**
      * Constructor
@@ -36,17 +73,57 @@ public class CodeWriter {
      * @param filename Output filename without extension
      */
     public CodeWriter(String fileName, String filePath, boolean addSysInit) {
+        this(fileName, filePath, addSysInit, false, EnumSet.noneOf(Option.class));
+    }
+
+
+    /**
+     * Constructor
+     * 
+     * A unit CodeWriter translates a single translation unit in memory,
+     * its commands are added to the program with append()
+     * 
+     * @param unitName Name of the .vm-file without extension
+     * @param options Code generation options of the program
+     */
+    public CodeWriter(String unitName, Set<Option> options) {
+        this(unitName, "", false, false, options);
+        beginUnit(unitName);
+    }
+
+
+    /**
+     * Constructor
+     * 
+     * A streaming CodeWriter writes every command to the output-file
+     * as soon as it is translated, instead of collecting all commands,
+     * call close() after the last command
+     * 
+     * @param filename Output filename without extension
+     * @param streaming Write while translating
+     * @param options Code generation options
+     */
+    public CodeWriter(String fileName, String filePath, boolean addSysInit, boolean streaming, Set<Option> options) {
         this.fileName = fileName;
         this.filePath = filePath;
+        this.options = EnumSet.noneOf(Option.class);
+        this.options.addAll(options);
+        this.usedRoutines = EnumSet.noneOf(Opcode.class);
+        this.routineLengths = new EnumMap<>(Opcode.class);
+
+        this.costs = new CostReport();
+        this.costName = BOOTSTRAP_UNIT;
         
-        this.functionName = fileName;           // Will be overridden
-        this.fileNameForStatics = functionName; // Will be overridden
+        this.functionName = fileName;   // Will be overridden
+        this.unitName = functionName;   // Will be overridden
 
         this.comparisonCount = 0;
-        this.returnCounter = 1;
+        this.returnCounter = 0;
         
         this.translatedCommands = new ArrayList<>();
 
+        if (streaming) emitter = createEmitter();
+
         if (addSysInit) writeSysInit();
     }
 
@@ -56,14 +133,14 @@ public class CodeWriter {
      */
     private void writeSysInit() {
         // SP = 256
-        translatedCommands.add("@256");
-        translatedCommands.add("D=A");
-        translatedCommands.add("@SP");
-        translatedCommands.add("M=D");
+        write("@256");
+        write("D=A");
+        write("@SP");
+        write("M=D");
 
         // call Sys.init
+        beginUnit(BOOTSTRAP_UNIT);
         functionName = "Sys.init";
-        fileNameForStatics = "Sys";
         translateCall(functionName, 0);
     }
 
@@ -73,112 +150,505 @@ public class CodeWriter {
      * 
      * @param commands List of commands to translate
      */
-    public void translate(List<Map<String, String>> commands) {
-        String op;
-        String arg1;
-        int arg2;
-
-        for (Map<String, String> command : commands) {
-            op = command.get("operation");
-            arg1 = command.get("arg1");
-            arg2 = (!command.get("arg2").equals("")) ? 
-                Integer.parseInt(command.get("arg2")) : -1;
-
-            if (command.get("type").equals(OpType.PUSH.toString())) {
-                resolveAddress(arg1, arg2);
-                translatePush(arg1);
-            }
-            else if (command.get("type").equals(OpType.POP.toString())) {
-                resolveAddress(arg1, arg2);
-                translatePop();
-            }
-            else if (command.get("type").equals(OpType.ARITHMETIC.toString()))
+    public void translate(CommandList commands) {
+        translateCommands(commands);
+        writeEnd();
+    }
+
+
+    /**
+     * Start a new translation unit,
+     * its statics and generated labels are prefixed with the unit name
+     * 
+     * @param unitName Name of the .vm-file without extension
+     */
+    public void beginUnit(String unitName) {
+        spillTop();
+
+        this.unitName = unitName;
+        this.functionName = unitName;
+        this.costName = unitName;
+        this.comparisonCount = 0;
+        this.returnCounter = 0;
+    }
+
+
+    /**
+     * Translate a translation unit, without the end of the program
+     * 
+     * @param unitName Name of the .vm-file without extension
+     * @param commands List of commands of the unit
+     */
+    public void translateUnit(String unitName, CommandList commands) {
+        beginUnit(unitName);
+        translateCommands(commands);
+        spillTop();
+    }
+
+
+    /**
+     * Add the translated commands of a unit CodeWriter to the program
+     * 
+     * @param unit CodeWriter of a translation unit
+     */
+    public void append(CodeWriter unit) {
+        for (String command : unit.getTranslatedCommands()) output(command);
+
+        usedRoutines.addAll(unit.usedRoutines);
+        costs.merge(unit.costs);
+    }
+
+
+    /**
+     * Translate a part of the program, without the end of the program
+     * 
+     * @param commands List of commands to translate
+     */
+    public void translateCommands(CommandList commands) {
+        for (int i = 0; i < commands.size(); i++) {
+            Opcode op = commands.getOpcode(i);
+            int instructions = costs.getTotalInstructions();
+            routineCycles = 0;
+
+            translateCommand(op, commands.getSegment(i), commands.getSymbolName(i), commands.getArgument(i));
+            costs.addCommand(costName, op, costs.getTotalInstructions() - instructions, routineCycles);
+        }
+    }
+
+
+    /**
+     * Translate a single command
+     * 
+     * @param op Opcode of the command
+     * @param segment Segment of the command
+     * @param symbol Label or function name of the command
+     * @param argument Index or count of the command
+     */
+    private void translateCommand(Opcode op, Segment segment, String symbol, int argument) {
+        if (options.contains(Option.CACHE_TOP) && translateCached(op, segment, symbol, argument))
+            return;
+
+        switch (op) {
+            case PUSH:
+                loadValue(segment, argument);
+                pushDToStack();
+                break;
+            case POP:
+                translatePop(segment, argument);
+                break;
+            case ADD:
+            case SUB:
+            case NEG:
+            case EQ:
+            case GT:
+            case LT:
+            case AND:
+            case OR:
+            case NOT:
                 translateArithmetic(op);
-            else if (command.get("type").equals(OpType.LABEL.toString()))
-                translateLabel(arg1);
-            else if (command.get("type").equals(OpType.GOTO.toString()))
-                translateGoto(arg1);
-            else if (command.get("type").equals(OpType.IF.toString()))
-                translateIf(arg1);
-            else if (command.get("type").equals(OpType.FUNCTION.toString()))
-                translateFunction(arg1, arg2);
-            else if (command.get("type").equals(OpType.CALL.toString()))
-                translateCall(arg1, arg2);
-            else if (command.get("type").equals(OpType.RETURN.toString()))
+                break;
+            case LABEL:
+                translateLabel(symbol);
+                break;
+            case GOTO:
+                translateGoto(symbol);
+                break;
+            case IF_GOTO:
+                translateIf(symbol);
+                break;
+            case FUNCTION:
+                translateFunction(symbol, argument);
+                break;
+            case CALL:
+                translateCall(symbol, argument);
+                break;
+            case RETURN:
                 translateReturn();
-            else {
-                System.out.println("[Error] Operation unknown!");
-                System.exit(-1);
-            }
+                break;
+            case IF_EQ:
+            case IF_NE:
+            case IF_GT:
+            case IF_LE:
+            case IF_LT:
+            case IF_GE:
+                translateFusedIf(op, symbol);
+                break;
+            case ADD_CONSTANT:
+                translateAddConstant(argument);
+                break;
+            case LOAD:
+                loadValue(segment, argument);
+                break;
+            case STORE:
+                translateStore(segment, argument);
+                break;
+            case TAIL_CALL:
+                translateTailCall(symbol, argument);
+                break;
         }
-        
-        // Append infinite loop, so it terminates properly
-        translatedCommands.add("(END)");
-        translatedCommands.add("@END");
-        translatedCommands.add("0;JMP");
     }
 
 
     /**
-     * Resolve the base address of the arg1
-     * 
-     * @param arg1 The arg1 of the current command
-     * @param arg2 The arg2 of the arg1, to operate on
+     * Append infinite loop, so it terminates properly
      */
-    private void resolveAddress(String arg1, int arg2) {
-        if (arg1.equals("constant")) translatedCommands.add("@" + arg2);
-        else if (arg1.equals("static")) translatedCommands.add("@" + fileNameForStatics + "." + arg2);
-        else if (arg1.equals("pointer")) translatedCommands.add("@R" + (Token.POINTER_BASE+arg2));
-        else if (arg1.equals("temp")) translatedCommands.add("@R" + (Token.TEMP_BASE+arg2));
-        else if (
-            arg1.equals("local") ||
-            arg1.equals("argument") ||
-            arg1.equals("this") ||
-            arg1.equals("that")
-        ) {
-            translatedCommands.add("@" + arg2);
-            translatedCommands.add("D=A");
+    public void writeEnd() {
+        spillTop();
+
+        costName = END_CODE;
+        write("(END)");
+        write("@END");
+        write("0;JMP");
+
+        // Shared routines are only entered by a jump
+        for (Opcode op : ROUTINES)
+            if (usedRoutines.contains(op)) writeRoutine(op);
+        if (usedRoutines.contains(Opcode.EQ) || usedRoutines.contains(Opcode.GT) || usedRoutines.contains(Opcode.LT)) {
+            costName = COMPARISON_RESULTS_CODE;
+            writeComparisonResults();
+        }
+    }
 
-            if (arg1.equals("local")) translatedCommands.add("@" + Token.LOCAL_CODE);
-            else if (arg1.equals("argument")) translatedCommands.add("@" + Token.ARGUMENT_CODE);
-            else if (arg1.equals("this")) translatedCommands.add("@" + Token.THIS_CODE);
-            else translatedCommands.add("@" + Token.THAT_CODE);
-            
-            translatedCommands.add("A=M");
-            translatedCommands.add("A=A+D");
+
+    /**
+     * Write the shared routine of an operation
+     * 
+     * @param op CALL, RETURN, EQ, GT or LT
+     */
+    private void writeRoutine(Opcode op) {
+        if (op == Opcode.CALL) {
+            costName = Token.CALL_ROUTINE;
+            writeCallRoutine();
+        }
+        else if (op == Opcode.RETURN) {
+            costName = Token.RETURN_ROUTINE;
+            writeReturnRoutine();
+        }
+        else if (op == Opcode.EQ) {
+            costName = comparisonRoutine(op);
+            writeEqualRoutine();
         }
         else {
-            System.out.println("[Error] First argument unknown!");
-            System.exit(-1);
+            costName = comparisonRoutine(op);
+            writeOrderRoutine(op);
+        }
+    }
+
+
+    /**
+     * Count a jump of the current command to a shared routine
+     * 
+     * @param op Operation of the routine
+     */
+    private void useRoutine(Opcode op) {
+        usedRoutines.add(op);
+
+        // The routine is written once into an empty CodeWriter to measure it,
+        // comparisons continue in the shared results
+        Integer length = routineLengths.get(op);
+        if (length == null) {
+            CodeWriter routine = new CodeWriter(BOOTSTRAP_UNIT, options);
+            routine.writeRoutine(op);
+            if (op != Opcode.CALL && op != Opcode.RETURN) routine.writeComparisonResults();
+
+            length = routine.getInstructionCount();
+            routineLengths.put(op, length);
+        }
+        routineCycles += length;
+    }
+
+
+    /**
+     * Resolve the base address of the segment
+     * 
+     * @param segment The segment of the current command
+     * @param index The index inside the segment, to operate on
+     */
+    private void resolveAddress(Segment segment, int index) {
+        switch (segment) {
+            case CONSTANT:
+                write("@" + index);
+                break;
+            case STATIC:
+                write("@" + unitName + "." + index);
+                break;
+            case POINTER:
+                write("@R" + (Token.POINTER_BASE+index));
+                break;
+            case TEMP:
+                write("@R" + (Token.TEMP_BASE+index));
+                break;
+            case LOCAL:
+            case ARGUMENT:
+            case THIS:
+            case THAT:
+                String base;
+                if (segment == Segment.LOCAL) base = "@" + Token.LOCAL_CODE;
+                else if (segment == Segment.ARGUMENT) base = "@" + Token.ARGUMENT_CODE;
+                else if (segment == Segment.THIS) base = "@" + Token.THIS_CODE;
+                else base = "@" + Token.THAT_CODE;
+
+                // Small offsets are added one by one, D stays untouched
+                if (index <= SMALL_OFFSET) {
+                    write(base);
+                    write((index == 0) ? "A=M" : "A=M+1");
+                    for (int i = 1; i < index; i++) write("A=A+1");
+                    break;
+                }
+
+                write("@" + index);
+                write("D=A");
+                write(base);
+                write("A=M");
+                write("A=A+D");
+                break;
+            default:
+                System.out.println("[Error] First argument unknown!");
+                System.exit(-1);
+        }
+    }
+
+
+    /**
+     * Check if resolveAddress keeps D
+     * 
+     * @param segment The segment of the current command
+     * @param index The index inside the segment
+     */
+    private static boolean isDirectAddress(Segment segment, int index) {
+        return segment == Segment.STATIC || segment == Segment.TEMP || segment == Segment.POINTER ||
+            (segment != Segment.CONSTANT && index <= SMALL_OFFSET);
+    }
+
+
+    /**
+     * Load the value of a push command into D
+     * 
+     * @param segment The segment where the push-command operates on
+     * @param index The index inside the segment
+     */
+    private void loadValue(Segment segment, int index) {
+        if (segment == Segment.CONSTANT && (index == 0 || index == 1)) {
+            write("D=" + index);
+            return;
         }
+
+        resolveAddress(segment, index);
+        write((segment == Segment.CONSTANT) ? "D=A" : "D=M");
     }
 
 
     /**
      * Translation for push command
      * 
-     * @param arg1 The first argument where the push-command operates on
+     * @param segment The segment where the push-command operates on
      */
-    private void translatePush(String arg1) {
-        if (arg1.equals("constant")) 
-            translatedCommands.add("D=A");
+    private void translatePush(Segment segment) {
+        if (segment == Segment.CONSTANT) 
+            write("D=A");
         else 
-            translatedCommands.add("D=M");
+            write("D=M");
         pushDToStack();
     }
 
 
     /**
      * Translation for pop-command
+     * 
+     * @param segment The segment where the pop-command operates on
+     * @param index The index inside the segment
+     */
+    private void translatePop(Segment segment, int index) {
+        // Pop first, then store without R13
+        if (isDirectAddress(segment, index)) {
+            popStackToD();
+            resolveAddress(segment, index);
+            write("M=D");
+            return;
+        }
+
+        resolveAddress(segment, index);
+        write("D=A");
+        write("@R13");
+        write("M=D");
+        popStackToD();
+        write("@R13");
+        write("A=M");
+        write("M=D");
+    }
+
+
+    /**
+     * Translate a command with the top of the stack cached in D
+     * 
+     * The top stays in D from command to command and is only written to
+     * the stack before labels, jumps, calls, returns and the end of a unit,
+     * where every path has to agree on the stack.
+     * 
+     * @return false when the command has to be translated normally,
+     *         the top is written to the stack then
+     */
+    private boolean translateCached(Opcode op, Segment segment, String symbol, int argument) {
+        switch (op) {
+            case PUSH:
+                spillTop();
+                loadValue(segment, argument);
+                topInD = true;
+                return true;
+            case POP:
+                loadTop();
+                translateStore(segment, argument);
+                topInD = false;
+                return true;
+            case ADD:
+            case SUB:
+            case AND:
+            case OR:
+                // D = x op y, x is popped from the stack
+                loadTop();
+                write("@SP");
+                write("AM=M-1");
+                if (op == Opcode.ADD) write("D=D+M");
+                else if (op == Opcode.SUB) write("D=M-D");
+                else if (op == Opcode.AND) write("D=D&M");
+                else write("D=D|M");
+                return true;
+            case NEG:
+            case NOT:
+                loadTop();
+                write((op == Opcode.NEG) ? "D=-D" : "D=!D");
+                return true;
+            case EQ:
+            case GT:
+            case LT:
+                // The shared routines work on the stack
+                if (options.contains(Option.SHARED_COMPARISONS)) break;
+
+                loadTop();
+                write("@SP");
+                write("AM=M-1");
+                write("D=M-D");
+
+                String comparisonLabel = unitName + "$cmp." + (comparisonCount++);
+                write("@" + comparisonLabel + ".true");
+                write("D;" + jumpMnemonic(op));
+                write("D=0");
+                write("@" + comparisonLabel + ".false");
+                write("0;JMP");
+                write("(" + comparisonLabel + ".true)");
+                write("D=-1");
+                write("(" + comparisonLabel + ".false)");
+                return true;
+            case IF_GOTO:
+                loadTop();
+                topInD = false;
+                write("@" + functionName + "$" + symbol);
+                write("D;JNE");
+                return true;
+            case IF_EQ:
+            case IF_NE:
+            case IF_GT:
+            case IF_LE:
+            case IF_LT:
+            case IF_GE:
+                loadTop();
+                topInD = false;
+                write("@SP");
+                write("AM=M-1");
+                write("D=M-D");
+                write("@" + functionName + "$" + symbol);
+                write("D;" + jumpMnemonic(op));
+                return true;
+            case ADD_CONSTANT:
+                // Without a cached top, x is changed in place
+                if (!topInD) break;
+
+                if (argument == 1 || argument == -1) {
+                    write((argument == 1) ? "D=D+1" : "D=D-1");
+                }
+                else {
+                    write("@" + Math.abs(argument));
+                    write((argument > 0) ? "D=D+A" : "D=D-A");
+                }
+                return true;
+            default:
+                break;
+        }
+
+        spillTop();
+        return false;
+    }
+
+
+    /**
+     * Write a top cached in D to the stack
+     */
+    private void spillTop() {
+        if (!topInD) return;
+
+        pushDToStack();
+        topInD = false;
+    }
+
+
+    /**
+     * Pop the top of the stack into D, unless it is already there
      */
-    private void translatePop() {
-        translatedCommands.add("D=A");
-        translatedCommands.add("@R13");
-        translatedCommands.add("M=D");
+    private void loadTop() {
+        if (topInD) return;
+
         popStackToD();
-        translatedCommands.add("@R13");
-        translatedCommands.add("A=M");
-        translatedCommands.add("M=D");
+        topInD = true;
+    }
+
+
+    /**
+     * Translation for store-command, stores D without using the stack
+     * 
+     * @param segment The segment where the store-command operates on
+     * @param index The index inside the segment
+     */
+    private void translateStore(Segment segment, int index) {
+        // D stays untouched while the address is resolved
+        if (isDirectAddress(segment, index)) {
+            resolveAddress(segment, index);
+            write("M=D");
+            return;
+        }
+
+        // Keep D in R13 while the address is computed into R14
+        write("@R13");
+        write("M=D");
+        resolveAddress(segment, index);
+        write("D=A");
+        write("@R14");
+        write("M=D");
+        write("@R13");
+        write("D=M");
+        write("@R14");
+        write("A=M");
+        write("M=D");
+    }
+
+
+    /**
+     * Translation for add-constant command, x = x + constant in place
+     * 
+     * @param constant The constant to add, negative to subtract
+     */
+    private void translateAddConstant(int constant) {
+        if (constant == 1 || constant == -1) {
+            write("@SP");
+            write("A=M-1");
+            write((constant == 1) ? "M=M+1" : "M=M-1");
+            return;
+        }
+
+        write("@" + Math.abs(constant));
+        write("D=A");
+        write("@SP");
+        write("A=M-1");
+        write((constant > 0) ? "M=M+D" : "M=M-D");
     }
 
 
@@ -187,47 +657,60 @@ public class CodeWriter {
      * 
      * @param op The arithmetic operation (e.g. add, sub, ...)
      */
-    private void translateArithmetic(String op) {
+    private void translateArithmetic(Opcode op) {
+        // D = return address, jump to the shared routine of the comparison
+        if (options.contains(Option.SHARED_COMPARISONS) && (op == Opcode.EQ || op == Opcode.GT || op == Opcode.LT)) {
+            String retAddrLabel = unitName + "$cmp." + (comparisonCount++);
+            write("@" + retAddrLabel);
+            write("D=A");
+            write("@" + comparisonRoutine(op));
+            write("0;JMP");
+            write("(" + retAddrLabel + ")");
+            useRoutine(op);
+            return;
+        }
+
         // Pop first argument for non binary operations, store in D
-        if (!op.equals("neg") && !op.equals("not")) 
+        if (op != Opcode.NEG && op != Opcode.NOT) 
             popStackToD();
 
         decrementSP();
         setAToStack();
 
-        if (op.equals("add")) translatedCommands.add("M=M+D");
-        else if (op.equals("sub")) translatedCommands.add("M=M-D");
-        else if (op.equals("neg")) translatedCommands.add("M=-M");
+        if (op == Opcode.ADD) write("M=M+D");
+        else if (op == Opcode.SUB) write("M=M-D");
+        else if (op == Opcode.NEG) write("M=-M");
 
-        else if (op.equals("and")) translatedCommands.add("M=M&D");
-        else if (op.equals("or")) translatedCommands.add("M=M|D");
-        else if (op.equals("not")) translatedCommands.add("M=!M");
+        else if (op == Opcode.AND) write("M=M&D");
+        else if (op == Opcode.OR) write("M=M|D");
+        else if (op == Opcode.NOT) write("M=!M");
         
-        else if (op.equals("eq") || op.equals("gt") || op.equals("lt")) {
+        else if (op == Opcode.EQ || op == Opcode.GT || op == Opcode.LT) {
             // if (x==y) <=> if (x-y == 0)
             // if (x>y) <=> if (x-y > 0)
             // if (x<y) <=> if (x-y < 0)
-            translatedCommands.add("D=M-D");
-            translatedCommands.add("@COMPARISON_" + comparisonCount + "_WAS_TRUE");
+            write("D=M-D");
+            String comparisonLabel = unitName + "$cmp." + comparisonCount;
+            write("@" + comparisonLabel + ".true");
 
-            // if true jump to COMPARISON_x_WAS_TRUE
-            if (op.equals("eq")) translatedCommands.add("D;JEQ");
-            else if (op.equals("gt")) translatedCommands.add("D;JGT");
-            else translatedCommands.add("D;JLT");
+            // if true jump to unit$cmp.x.true
+            if (op == Opcode.EQ) write("D;JEQ");
+            else if (op == Opcode.GT) write("D;JGT");
+            else write("D;JLT");
 
-            // else jump to COMPARISON_x_WAS_FALSE
+            // else jump to unit$cmp.x.false
             setAToStack();
-            translatedCommands.add("M=0");
-            translatedCommands.add("@COMPARISON_" + comparisonCount + "_WAS_FALSE");
-            translatedCommands.add("0;JMP");
+            write("M=0");
+            write("@" + comparisonLabel + ".false");
+            write("0;JMP");
 
-            // write label: (COMPARISON_x_WAS_TRUE)
-            translatedCommands.add("(COMPARISON_" + comparisonCount + "_WAS_TRUE)");
+            // write label: (unit$cmp.x.true)
+            write("(" + comparisonLabel + ".true)");
             setAToStack();
-            translatedCommands.add("M=-1");
+            write("M=-1");
 
-            // write label: (COMPARISON_x_WAS_FALSE)
-            translatedCommands.add("(COMPARISON_" + comparisonCount + "_WAS_FALSE)");
+            // write label: (unit$cmp.x.false)
+            write("(" + comparisonLabel + ".false)");
 
             comparisonCount++;
         }
@@ -246,7 +729,7 @@ public class CodeWriter {
      * @param arg1 The label name
      */
     private void translateLabel(String arg1) {
-        translatedCommands.add("(" + functionName + "$" + arg1 + ")");
+        write("(" + functionName + "$" + arg1 + ")");
     }
 
 
@@ -256,8 +739,8 @@ public class CodeWriter {
      * @param arg1 The label to jump to
      */
     private void translateGoto(String arg1) {
-        translatedCommands.add("@" + functionName + "$" + arg1);
-        translatedCommands.add("0;JMP");
+        write("@" + functionName + "$" + arg1);
+        write("0;JMP");
     }
 
 
@@ -268,8 +751,52 @@ public class CodeWriter {
      */
     private void translateIf(String arg1) {
         popStackToD();
-        translatedCommands.add("@" + functionName + "$" + arg1);
-        translatedCommands.add("D;JNE");
+        write("@" + functionName + "$" + arg1);
+        write("D;JNE");
+    }
+
+
+    /**
+     * Translate a comparison fused with if-command
+     * 
+     * @param op The fused operation (e.g. if-eq, if-le, ...)
+     * @param arg1 The label to jump to
+     */
+    private void translateFusedIf(Opcode op, String arg1) {
+        // D = x-y, SP -= 2
+        write("@SP");
+        write("M=M-1");
+        write("AM=M-1");
+        write("D=M");
+        write("A=A+1");
+        write("D=D-M");
+
+        write("@" + functionName + "$" + arg1);
+        write("D;" + jumpMnemonic(op));
+    }
+
+
+    /**
+     * Get the jump of a comparison or fused if-command, testing D = x-y
+     */
+    private static String jumpMnemonic(Opcode op) {
+        switch (op) {
+            case EQ:
+            case IF_EQ:
+                return "JEQ";
+            case IF_NE:
+                return "JNE";
+            case GT:
+            case IF_GT:
+                return "JGT";
+            case IF_LE:
+                return "JLE";
+            case LT:
+            case IF_LT:
+                return "JLT";
+            default:
+                return "JGE";
+        }
     }
 
 
@@ -281,13 +808,13 @@ public class CodeWriter {
      */
     private void translateFunction(String arg1, int arg2) {
         functionName = arg1;
-        fileNameForStatics = functionName.split("\\.")[0];
+        costName = arg1;
 
-        translatedCommands.add("(" + arg1 + ")");
+        write("(" + arg1 + ")");
 
         for (int i = 0; i < arg2; i++) {
-            resolveAddress("constant", 0);
-            translatePush("constant");
+            loadValue(Segment.CONSTANT, 0);
+            pushDToStack();
         }
     }
 
@@ -299,52 +826,107 @@ public class CodeWriter {
      * @param arg2 The function argument count
      */
     private void translateCall(String arg1, int arg2) {
-        String retAddrLabel = "FUNC_RETURN_"+(returnCounter++);
+        String retAddrLabel = unitName + "$ret." + (returnCounter++);
+
+        // R13 = nArgs, R14 = function, D = retAddrLabel, jump to $CALL
+        if (options.contains(Option.SHARED_CALLS)) {
+            write("@" + arg2);
+            write("D=A");
+            write("@R13");
+            write("M=D");
+            write("@" + arg1);
+            write("D=A");
+            write("@R14");
+            write("M=D");
+            write("@" + retAddrLabel);
+            write("D=A");
+            write("@" + Token.CALL_ROUTINE);
+            write("0;JMP");
+            write("(" + retAddrLabel + ")");
+            useRoutine(Opcode.CALL);
+            return;
+        }
 
         // Push retAddrLabel
-        translatedCommands.add("@"+retAddrLabel);
-        translatedCommands.add("D=A");
+        write("@"+retAddrLabel);
+        write("D=A");
         // pushDToStack();
-        translatedCommands.add("@SP");
-        translatedCommands.add("A=M");
-        translatedCommands.add("M=D");
-        translatedCommands.add("@SP");
-        translatedCommands.add("M=M+1");
+        write("@SP");
+        write("A=M");
+        write("M=D");
+        write("@SP");
+        write("M=M+1");
 
         // Store prev LCL, ARG, THIS, THAT
-        translatedCommands.add("@"+Token.LOCAL_CODE);
-        translatePush("local");
-        translatedCommands.add("@"+Token.ARGUMENT_CODE);
-        translatePush("argument");
-        translatedCommands.add("@"+Token.THIS_CODE);
-        translatePush("this");
-        translatedCommands.add("@"+Token.THAT_CODE);
-        translatePush("that");
+        write("@"+Token.LOCAL_CODE);
+        translatePush(Segment.LOCAL);
+        write("@"+Token.ARGUMENT_CODE);
+        translatePush(Segment.ARGUMENT);
+        write("@"+Token.THIS_CODE);
+        translatePush(Segment.THIS);
+        write("@"+Token.THAT_CODE);
+        translatePush(Segment.THAT);
 
         // ARG = SP - 5 - nArgs
-        translatedCommands.add("@SP");
-        translatedCommands.add("D=M");
-        translatedCommands.add("@"+arg2);
-        translatedCommands.add("D=D-A");
-        translatedCommands.add("@5");
-        translatedCommands.add("D=D-A");
-        translatedCommands.add("@"+Token.ARGUMENT_CODE);
-        //translatedCommands.add("@ARG");
-        translatedCommands.add("M=D");
+        write("@SP");
+        write("D=M");
+        write("@"+arg2);
+        write("D=D-A");
+        write("@5");
+        write("D=D-A");
+        write("@"+Token.ARGUMENT_CODE);
+        //write("@ARG");
+        write("M=D");
 
         // Update LCL
-        translatedCommands.add("@SP");
-        translatedCommands.add("D=M");
-        translatedCommands.add("@"+Token.LOCAL_CODE);
-        //translatedCommands.add("@LCL");
-        translatedCommands.add("M=D");
+        write("@SP");
+        write("D=M");
+        write("@"+Token.LOCAL_CODE);
+        //write("@LCL");
+        write("M=D");
 
         // Write GOTO
-        translatedCommands.add("@"+arg1);
-        translatedCommands.add("0;JMP");
+        write("@"+arg1);
+        write("0;JMP");
 
         // Write return label
-        translatedCommands.add("("+ retAddrLabel + ")");
+        write("("+ retAddrLabel + ")");
+    }
+
+
+    /**
+     * Translate tail-call-command, a call directly followed by return
+     * 
+     * The current function has as many arguments as the call passes,
+     * so its saved frame stays in place. The arguments of the call replace
+     * the own arguments and the function is entered with an empty stack.
+     * 
+     * @param arg1 The function name being called
+     * @param arg2 The function argument count
+     */
+    private void translateTailCall(String arg1, int arg2) {
+        // ARG[i] = *(SP - nArgs + i), upwards, so no argument is overwritten before it is read
+        for (int i = 0; i < arg2; i++) {
+            write("@SP");
+            write("D=M");
+            write("@" + (arg2 - i));
+            write("A=D-A");
+            write("D=M");
+            write("@" + Token.ARGUMENT_CODE);
+            write("A=M");
+            for (int j = 0; j < i; j++) write("A=A+1");
+            write("M=D");
+        }
+
+        // SP = LCL
+        write("@" + Token.LOCAL_CODE);
+        write("D=M");
+        write("@SP");
+        write("M=D");
+
+        // Write GOTO
+        write("@" + arg1);
+        write("0;JMP");
     }
 
 
@@ -352,32 +934,39 @@ public class CodeWriter {
      * Translate return-command
      */
     private void translateReturn() {
+        if (options.contains(Option.SHARED_CALLS)) {
+            write("@" + Token.RETURN_ROUTINE);
+            write("0;JMP");
+            useRoutine(Opcode.RETURN);
+            return;
+        }
+
         // endFrame = LCL
-        translatedCommands.add("@"+Token.LOCAL_CODE);
-        translatedCommands.add("D=M");
-        translatedCommands.add("@END_FRAME");
-        translatedCommands.add("M=D");
+        write("@"+Token.LOCAL_CODE);
+        write("D=M");
+        write("@END_FRAME");
+        write("M=D");
 
         // retAddr = *(endFrame - 5)
-        translatedCommands.add("@5");
-        translatedCommands.add("A=D-A");   
-        translatedCommands.add("D=M");
-        translatedCommands.add("@RET_ADDR");
-        translatedCommands.add("M=D");
+        write("@5");
+        write("A=D-A");   
+        write("D=M");
+        write("@RET_ADDR");
+        write("M=D");
 
         // *ARG = pop()
-        translatedCommands.add("@SP");
-        translatedCommands.add("A=M-1");
-        translatedCommands.add("D=M");
-        translatedCommands.add("@"+Token.ARGUMENT_CODE);
-        translatedCommands.add("A=M");
-        translatedCommands.add("M=D");
+        write("@SP");
+        write("A=M-1");
+        write("D=M");
+        write("@"+Token.ARGUMENT_CODE);
+        write("A=M");
+        write("M=D");
 
         // SP = ARG + 1
-        translatedCommands.add("@"+Token.ARGUMENT_CODE);
-        translatedCommands.add("D=M+1");
-        translatedCommands.add("@SP");
-        translatedCommands.add("M=D");
+        write("@"+Token.ARGUMENT_CODE);
+        write("D=M+1");
+        write("@SP");
+        write("M=D");
 
         // Restore THAT, THIS, ARG, LCL
         restoreForReturn("THAT", 1);
@@ -386,25 +975,230 @@ public class CodeWriter {
         restoreForReturn("LCL", 4);
 
         // GOTO retAddr
-        translatedCommands.add("@RET_ADDR");
-        translatedCommands.add("A=M");
-        translatedCommands.add("0;JMP");
+        write("@RET_ADDR");
+        write("A=M");
+        write("0;JMP");
     }
     
 
+    /**
+     * Write the shared routine of all calls:
+     * push D as return address, save the frame, set ARG and LCL, jump to R14
+     * 
+     * R13 holds the argument count and R14 the address of the function
+     */
+    private void writeCallRoutine() {
+        write("(" + Token.CALL_ROUTINE + ")");
+
+        // Push return address
+        write("@SP");
+        write("A=M");
+        write("M=D");
+
+        // Push LCL, ARG, THIS, THAT
+        for (String segment : new String[] { Token.LOCAL_CODE, Token.ARGUMENT_CODE, Token.THIS_CODE, Token.THAT_CODE }) {
+            write("@" + segment);
+            write("D=M");
+            write("@SP");
+            write("AM=M+1");
+            write("M=D");
+        }
+
+        // LCL = SP
+        write("@SP");
+        write("MD=M+1");
+        write("@" + Token.LOCAL_CODE);
+        write("M=D");
+
+        // ARG = SP - 5 - nArgs
+        write("@R13");
+        write("D=D-M");
+        write("@5");
+        write("D=D-A");
+        write("@" + Token.ARGUMENT_CODE);
+        write("M=D");
+
+        // GOTO function
+        write("@R14");
+        write("A=M");
+        write("0;JMP");
+    }
+
+
+    /**
+     * Write the shared routine of all returns,
+     * the frame is walked down in R14 and the return address is kept in R15
+     */
+    private void writeReturnRoutine() {
+        write("(" + Token.RETURN_ROUTINE + ")");
+
+        // endFrame = LCL
+        write("@" + Token.LOCAL_CODE);
+        write("D=M");
+        write("@R14");
+        write("M=D");
+
+        // retAddr = *(endFrame - 5)
+        write("@5");
+        write("A=D-A");
+        write("D=M");
+        write("@R15");
+        write("M=D");
+
+        // *ARG = pop(), SP = ARG + 1
+        write("@SP");
+        write("A=M-1");
+        write("D=M");
+        write("@" + Token.ARGUMENT_CODE);
+        write("A=M");
+        write("M=D");
+        write("D=A+1");
+        write("@SP");
+        write("M=D");
+
+        // Restore THAT, THIS, ARG, LCL
+        for (String segment : new String[] { Token.THAT_CODE, Token.THIS_CODE, Token.ARGUMENT_CODE, Token.LOCAL_CODE }) {
+            write("@R14");
+            write("AM=M-1");
+            write("D=M");
+            write("@" + segment);
+            write("M=D");
+        }
+
+        // GOTO retAddr
+        write("@R15");
+        write("A=M");
+        write("0;JMP");
+    }
+
+
+    /**
+     * Get the label of the shared routine of a comparison
+     */
+    private static String comparisonRoutine(Opcode op) {
+        if (op == Opcode.EQ) return Token.EQ_ROUTINE;
+        else if (op == Opcode.GT) return Token.GT_ROUTINE;
+        else return Token.LT_ROUTINE;
+    }
+
+
+    /**
+     * Write the shared routine of eq, D holds the return address
+     * 
+     * x-y wraps around on overflow, but is still 0 only for x==y
+     */
+    private void writeEqualRoutine() {
+        write("(" + Token.EQ_ROUTINE + ")");
+        write("@R15");
+        write("M=D");
+
+        // D = x-y, SP points to y
+        write("@SP");
+        write("AM=M-1");
+        write("D=M");
+        write("A=A-1");
+        write("D=M-D");
+
+        write("@" + Token.COMPARISON_TRUE);
+        write("D;JEQ");
+        write("@" + Token.COMPARISON_FALSE);
+        write("0;JMP");
+    }
+
+
+    /**
+     * Write the shared routine of gt or lt, D holds the return address
+     * 
+     * x-y overflows when x and y have different signs,
+     * then the sign of x alone decides the result,
+     * otherwise x-y is compared with 0
+     * 
+     * @param op GT or LT
+     */
+    private void writeOrderRoutine(Opcode op) {
+        String routine = comparisonRoutine(op);
+        // Result when x is negative and y is not
+        String xNegative = (op == Opcode.GT) ? Token.COMPARISON_FALSE : Token.COMPARISON_TRUE;
+        // Result when y is negative and x is not
+        String yNegative = (op == Opcode.GT) ? Token.COMPARISON_TRUE : Token.COMPARISON_FALSE;
+
+        write("(" + routine + ")");
+        write("@R15");
+        write("M=D");
+
+        // R13 = y, SP points to y
+        write("@SP");
+        write("AM=M-1");
+        write("D=M");
+        write("@R13");
+        write("M=D");
+        write("@" + routine + ".YNEG");
+        write("D;JLT");
+
+        // y >= 0
+        write("@SP");
+        write("A=M-1");
+        write("D=M");
+        write("@" + xNegative);
+        write("D;JLT");
+        write("@" + routine + ".SUB");
+        write("0;JMP");
+
+        // y < 0
+        write("(" + routine + ".YNEG)");
+        write("@SP");
+        write("A=M-1");
+        write("D=M");
+        write("@" + yNegative);
+        write("D;JGE");
+
+        // Same signs, D = x-y can not overflow
+        write("(" + routine + ".SUB)");
+        write("@R13");
+        write("D=D-M");
+        write("@" + Token.COMPARISON_TRUE);
+        write((op == Opcode.GT) ? "D;JGT" : "D;JLT");
+        write("@" + Token.COMPARISON_FALSE);
+        write("0;JMP");
+    }
+
+
+    /**
+     * Write the ends of the shared comparison routines,
+     * they replace x with the result and return to R15
+     */
+    private void writeComparisonResults() {
+        write("(" + Token.COMPARISON_FALSE + ")");
+        write("@SP");
+        write("A=M-1");
+        write("M=0");
+        write("@R15");
+        write("A=M");
+        write("0;JMP");
+
+        write("(" + Token.COMPARISON_TRUE + ")");
+        write("@SP");
+        write("A=M-1");
+        write("M=-1");
+        write("@R15");
+        write("A=M");
+        write("0;JMP");
+    }
+
+
     /**
      * Restore values for the return
      * @param segment [THIS | THAT | ARG | LCL] segment
      * @param offset The offset of the segment
      */
     private void restoreForReturn(String segment, int offset) {
-        translatedCommands.add("@" + offset);
-        translatedCommands.add("D=A");
-        translatedCommands.add("@END_FRAME");
-        translatedCommands.add("A=M-D");
-        translatedCommands.add("D=M");
-        translatedCommands.add("@" + segment);
-        translatedCommands.add("M=D");
+        write("@" + offset);
+        write("D=A");
+        write("@END_FRAME");
+        write("A=M-D");
+        write("D=M");
+        write("@" + segment);
+        write("M=D");
     }
 
 
@@ -413,8 +1207,8 @@ public class CodeWriter {
      */
     private void setAToStack() {
         // *SP
-        translatedCommands.add("@SP");
-        translatedCommands.add("A=M");
+        write("@SP");
+        write("A=M");
     }
 
 
@@ -423,8 +1217,8 @@ public class CodeWriter {
      */
     private void incrementSP() {
         // SP++
-        translatedCommands.add("@SP");
-        translatedCommands.add("M=M+1");
+        write("@SP");
+        write("M=M+1");
     }
 
 
@@ -433,8 +1227,8 @@ public class CodeWriter {
      */
     private void decrementSP() {
         // SP--
-        translatedCommands.add("@SP");
-        translatedCommands.add("M=M-1");
+        write("@SP");
+        write("M=M-1");
     }
 
 
@@ -443,11 +1237,12 @@ public class CodeWriter {
      * and increment the Stack-Pointer
      */
     private void pushDToStack() {
-        // *SP=D
         // SP++
-        setAToStack();
-        translatedCommands.add("M=D");
-        incrementSP();
+        // *(SP-1)=D
+        write("@SP");
+        write("M=M+1");
+        write("A=M-1");
+        write("M=D");
     } 
 
 
@@ -458,9 +1253,106 @@ public class CodeWriter {
     private void popStackToD() {
         // SP--
         // D=*SP
-        decrementSP();
-        setAToStack();
-        translatedCommands.add("D=M");
+        write("@SP");
+        write("AM=M-1");
+        write("D=M");
+    }
+
+
+    /**
+     * Add a translated command to the output
+     * 
+     * @param command Hack-Assembly command
+     */
+    private void write(String command) {
+        if (!command.startsWith("(")) costs.addInstruction(costName);
+        output(command);
+    }
+
+
+    /**
+     * Add a command to the output without counting it
+     * 
+     * @param command Hack-Assembly command
+     */
+    private void output(String command) {
+        if (emitter == null) translatedCommands.add(command);
+        else emit(command);
+    }
+
+
+    /**
+     * Hand a translated command to the emitter
+     * 
+     * @param command Hack-Assembly command
+     */
+    private void emit(String command) {
+        command = command.trim();
+
+        try {
+            if (command.startsWith("@")) emitter.address(command.substring(1));
+            else if (command.startsWith("(")) emitter.label(command.substring(1, command.length() - 1));
+            else emitter.compute(command);
+        }
+        catch (IOException ex) {
+            System.out.println("[Error] Writing to " + getOutputFilename() + " failed.");
+            System.exit(-1);
+        }
+    }
+
+
+    /**
+     * Create the emitter of the output-file, with -binary the program
+     * is encoded into Hack machine code without writing Hack-Assembly
+     */
+    private Emitter createEmitter() {
+        if (options.contains(Option.BINARY)) return new HackEmitter(getOutputFilename());
+
+        try {
+            return new AsmEmitter(getOutputFilename());
+        }
+        catch (IOException ex) {
+            System.out.println("[Error] Writing to " + getOutputFilename() + " failed.");
+            System.exit(-1);
+            return null;
+        }
+    }
+
+
+    /**
+     * Finish the program of a streaming CodeWriter and close the output-file
+     */
+    public void close() {
+        writeEnd();
+
+        try {
+            emitter.close();
+        }
+        catch (IOException ex) {
+            System.out.println("[Error] Writing to " + getOutputFilename() + " failed.");
+            System.exit(-1);
+        }
+    }
+
+
+    /**
+     * Get the output-filename with .asm or, with -binary, .hack file-extension
+     */
+    private String getOutputFilename() {
+        String extension = options.contains(Option.BINARY) ? ".hack" : ".asm";
+        String p = (filePath.endsWith(File.separator)) ? filePath : filePath + File.separator;
+        String n = (fileName.endsWith(extension)) ? fileName : fileName + extension;
+        return p + n;
+    }
+
+
+    /**
+     * Count the translated Hack-Instructions, labels are no instructions
+     * 
+     * @return Number of instructions
+     */
+    public int getInstructionCount() {
+        return costs.getTotalInstructions();
     }
 
 
@@ -468,21 +1360,17 @@ public class CodeWriter {
      * * Write translated commands to output-file
      */
     public void writeToFile() {
-        // Set .asm file-extension
-        String p = (filePath.endsWith(File.separator)) ? filePath : filePath + File.separator;
-        String n = (fileName.endsWith(".asm")) ? fileName : fileName + ".asm";
-        String outputFilename = p + n;
+        emitter = createEmitter();
+        for (String command : translatedCommands) emit(command);
 
-        try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(outputFilename))) {
-            for (String command : translatedCommands) {
-                bufferedWriter.append(command.trim());
-                bufferedWriter.append(System.lineSeparator());
-            }
+        try {
+            emitter.close();
         }
         catch (IOException ex) { 
-            System.out.println("[Error] Writing to .asm file failed.");
+            System.out.println("[Error] Writing to " + getOutputFilename() + " failed.");
             System.exit(-1);
         }
+        emitter = null;
     }
 
 
@@ -496,8 +1384,8 @@ public class CodeWriter {
     public String getFunctionName() { return functionName; }
     public void setFunctionName(String value) { functionName = value; }
 
-    public String getFileNameForStatics() { return fileNameForStatics; }
-    public void setFileNameForStatics(String value) { fileNameForStatics = value; }
+    public String getUnitName() { return unitName; }
+    public void setUnitName(String value) { unitName = value; }
 
     public int getReturnCounter() { return returnCounter; }
     public void setReturnCounter(int value) { returnCounter = value; }
@@ -507,4 +1395,10 @@ public class CodeWriter {
 
     public List<String> getTranslatedCommands() { return translatedCommands; }
     public void setTranslatedCommands(List<String> value) { translatedCommands = value; } 
+
+    public CostReport getCostReport() { return costs; }
+    public void setCostReport(CostReport value) { costs = value; }
+
+    public Set<Opcode> getUsedRoutines() { return usedRoutines; }
+    public void setUsedRoutines(Set<Opcode> value) { usedRoutines = EnumSet.noneOf(Opcode.class); usedRoutines.addAll(value); }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package vmtranslator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Segment;
+
+
+/**
+ * CommandList
+ * Compact list of parsed VM-Commands
+ * 
+ * Every command is stored in parallel primitive arrays as opcode, segment,
+ * symbol and argument. Labels and function names are interned, a command
+ * only holds the id of its symbol.
+ * 
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+public class CommandList {
+    public static final int NO_SYMBOL = -1;
+    public static final int NO_ARGUMENT = -1;
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final Segment[] SEGMENTS = Segment.values();
+
+    private byte[] opcodes;
+    private byte[] segments;
+    private int[] symbols;
+    private int[] arguments;
+    private int size;
+
+    private List<String> symbolNames;
+    private Map<String, Integer> symbolIds;
+
+
+    /**
+     * Constructor
+     */
+    public CommandList() {
+        this.opcodes = new byte[64];
+        this.segments = new byte[64];
+        this.symbols = new int[64];
+        this.arguments = new int[64];
+        this.size = 0;
+
+        this.symbolNames = new ArrayList<>();
+        this.symbolIds = new HashMap<>();
+    }
+
+
+    /**
+     * Append a command
+     * 
+     * @param opcode The operation
+     * @param segment The segment of push and pop, otherwise NONE
+     * @param symbol Id of the label or function name, otherwise NO_SYMBOL
+     * @param argument Index, local count or argument count, otherwise NO_ARGUMENT
+     */
+    public void add(Opcode opcode, Segment segment, int symbol, int argument) {
+        if (size == opcodes.length) {
+            int capacity = size * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            arguments = Arrays.copyOf(arguments, capacity);
+        }
+
+        opcodes[size] = (byte) opcode.ordinal();
+        segments[size] = (byte) segment.ordinal();
+        symbols[size] = symbol;
+        arguments[size] = argument;
+        size++;
+    }
+
+
+    /**
+     * Append a command of another list
+     * 
+     * @param source The list holding the command
+     * @param index Index of the command in source
+     */
+    public void add(CommandList source, int index) {
+        int symbol = (source.getSymbol(index) == NO_SYMBOL) ? NO_SYMBOL : intern(source.getSymbolName(index));
+        add(source.getOpcode(index), source.getSegment(index), symbol, source.getArgument(index));
+    }
+
+
+    /**
+     * Remove all commands and symbols, the capacity is kept
+     */
+    public void clear() {
+        size = 0;
+        symbolNames.clear();
+        symbolIds.clear();
+    }
+
+
+    /**
+     * Get the id of a label or function name, add it if it is new
+     * 
+     * @param name The label or function name
+     * @return Id of the name
+     */
+    public int intern(String name) {
+        Integer id = symbolIds.get(name);
+        if (id != null) return id;
+
+        symbolNames.add(name);
+        symbolIds.put(name, symbolNames.size() - 1);
+        return symbolNames.size() - 1;
+    }
+
+
+    /* GETTERS */
+    public int size() { return size; }
+
+    public Opcode getOpcode(int index) { return OPCODES[opcodes[index]]; }
+    public Segment getSegment(int index) { return SEGMENTS[segments[index]]; }
+    public int getSymbol(int index) { return symbols[index]; }
+    public int getArgument(int index) { return arguments[index]; }
+
+    public String getSymbolName(int index) {
+        return (symbols[index] == NO_SYMBOL) ? null : symbolNames.get(symbols[index]);
+    }
+}
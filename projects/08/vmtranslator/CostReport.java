@@ -0,0 +1,232 @@
+package vmtranslator;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vmtranslator.Token.Opcode;
+
+
+/**
+ * CostReport
+ * Static code size and cycle estimate of the translated program
+ *
+ * Every Hack-Instruction is counted for the function it was written in.
+ * Code outside of functions belongs to its unit, the bootstrap, the end of
+ * the program and the shared routines have names of their own.
+ *
+ * The cycle estimate assumes that every instruction of a command is executed
+ * once, a jump to a shared routine adds the length of the routine. Branches
+ * inside a command are counted with both ways, loops are not known.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+public class CostReport {
+    private static final int INSTRUCTIONS = 0;
+    private static final int CYCLES = 1;
+    private static final int COMMANDS = 2;
+
+    private static final String FUNCTION_KIND = "function";
+    private static final String OPCODE_KIND = "opcode";
+
+    // Key: function name, Value: instructions, cycles and VM-Commands
+    private Map<String, long[]> functions;
+
+    // Key: opcode, Value: instructions, cycles and number of commands
+    private EnumMap<Opcode, long[]> opcodes;
+
+    private int totalInstructions;
+
+
+    /**
+     * Constructor
+     */
+    public CostReport() {
+        this.functions = new HashMap<>();
+        this.opcodes = new EnumMap<>(Opcode.class);
+        this.totalInstructions = 0;
+    }
+
+
+    /**
+     * Count a Hack-Instruction
+     *
+     * @param function Function the instruction was written in
+     */
+    public void addInstruction(String function) {
+        long[] cost = functions.computeIfAbsent(function, name -> new long[3]);
+        cost[INSTRUCTIONS]++;
+        cost[CYCLES]++;
+        totalInstructions++;
+    }
+
+
+    /**
+     * Count a translated VM-Command, its instructions are counted by addInstruction
+     *
+     * @param function Function of the command
+     * @param op Opcode of the command
+     * @param instructions Number of instructions written for the command
+     * @param routineCycles Length of the shared routines the command jumps to
+     */
+    public void addCommand(String function, Opcode op, int instructions, int routineCycles) {
+        long[] cost = functions.computeIfAbsent(function, name -> new long[3]);
+        cost[CYCLES] += routineCycles;
+        cost[COMMANDS]++;
+
+        cost = opcodes.computeIfAbsent(op, opcode -> new long[3]);
+        cost[INSTRUCTIONS] += instructions;
+        cost[CYCLES] += instructions + routineCycles;
+        cost[COMMANDS]++;
+    }
+
+
+    /**
+     * Add the costs of another report, e.g. of a translation unit
+     *
+     * @param other The report to add
+     */
+    public void merge(CostReport other) {
+        for (Map.Entry<String, long[]> entry : other.functions.entrySet())
+            add(functions.computeIfAbsent(entry.getKey(), name -> new long[3]), entry.getValue());
+        for (Map.Entry<Opcode, long[]> entry : other.opcodes.entrySet())
+            add(opcodes.computeIfAbsent(entry.getKey(), opcode -> new long[3]), entry.getValue());
+        totalInstructions += other.totalInstructions;
+    }
+
+
+    /**
+     * Get the number of Hack-Instructions of the program
+     */
+    public int getTotalInstructions() { return totalInstructions; }
+
+
+    /**
+     * Write the report, as JSON for a .json-file and as CSV otherwise,
+     * functions and opcodes are sorted by instructions, the largest first
+     *
+     * @param filename Name of the report-file
+     */
+    public void write(String filename) throws IOException {
+        List<String[]> rows = rows();
+        boolean json = filename.endsWith(".json");
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            if (json) {
+                writer.append("{").append(System.lineSeparator());
+                writer.append("  \"instructions\": " + getTotalInstructions() + ",").append(System.lineSeparator());
+                writeJsonArray(writer, rows, FUNCTION_KIND, "functions", ",");
+                writeJsonArray(writer, rows, OPCODE_KIND, "opcodes", "");
+                writer.append("}").append(System.lineSeparator());
+                return;
+            }
+
+            writer.append("kind,name,instructions,cycles,commands").append(System.lineSeparator());
+            for (String[] row : rows)
+                writer.append(String.join(",", row)).append(System.lineSeparator());
+        }
+    }
+
+
+    /**
+     * Encode the report as lines of "kind name instructions cycles commands"
+     */
+    public List<String> encode() {
+        List<String> lines = new ArrayList<>();
+        for (String[] row : rows()) lines.add(String.join(" ", row));
+        return lines;
+    }
+
+
+    /**
+     * Add a line written by encode()
+     *
+     * @param line The encoded line
+     */
+    public void decode(String line) {
+        String[] parts = line.trim().split(Token.SPACE);
+        long[] cost = new long[] { Long.parseLong(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]) };
+
+        if (parts[0].equals(FUNCTION_KIND)) {
+            add(functions.computeIfAbsent(parts[1], name -> new long[3]), cost);
+            totalInstructions += cost[INSTRUCTIONS];
+        }
+        else add(opcodes.computeIfAbsent(opcode(parts[1]), opcode -> new long[3]), cost);
+    }
+
+
+    /**
+     * All functions and then all opcodes as kind, name, instructions, cycles and commands
+     */
+    private List<String[]> rows() {
+        List<String[]> functionRows = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : functions.entrySet())
+            functionRows.add(row(FUNCTION_KIND, entry.getKey(), entry.getValue()));
+
+        List<String[]> opcodeRows = new ArrayList<>();
+        for (Map.Entry<Opcode, long[]> entry : opcodes.entrySet())
+            opcodeRows.add(row(OPCODE_KIND, entry.getKey().mnemonic, entry.getValue()));
+
+        // Largest first, equal sizes by name, so the report is the same on every run
+        functionRows.sort(CostReport::compareRows);
+        opcodeRows.sort(CostReport::compareRows);
+        functionRows.addAll(opcodeRows);
+        return functionRows;
+    }
+
+
+    private static String[] row(String kind, String name, long[] cost) {
+        return new String[] {
+            kind, name, Long.toString(cost[INSTRUCTIONS]), Long.toString(cost[CYCLES]), Long.toString(cost[COMMANDS])
+        };
+    }
+
+
+    private static int compareRows(String[] a, String[] b) {
+        int bySize = Long.compare(Long.parseLong(b[2]), Long.parseLong(a[2]));
+        return (bySize != 0) ? bySize : a[1].compareTo(b[1]);
+    }
+
+
+    /**
+     * Write the rows of a kind as JSON-array
+     */
+    private static void writeJsonArray(
+        BufferedWriter writer, List<String[]> rows, String kind, String key, String separator
+    ) throws IOException {
+        List<String> objects = new ArrayList<>();
+        for (String[] row : rows) {
+            if (!row[0].equals(kind)) continue;
+            objects.add(
+                "    { \"name\": \"" + row[1] + "\", \"instructions\": " + row[2] +
+                ", \"cycles\": " + row[3] + ", \"commands\": " + row[4] + " }"
+            );
+        }
+
+        writer.append("  \"" + key + "\": [").append(System.lineSeparator());
+        writer.append(String.join("," + System.lineSeparator(), objects));
+        if (!objects.isEmpty()) writer.append(System.lineSeparator());
+        writer.append("  ]" + separator).append(System.lineSeparator());
+    }
+
+
+    /**
+     * Get the opcode of a mnemonic, internal opcodes included
+     */
+    private static Opcode opcode(String mnemonic) {
+        for (Opcode op : Opcode.values())
+            if (op.mnemonic.equals(mnemonic)) return op;
+        throw new IllegalArgumentException("Unknown opcode: " + mnemonic);
+    }
+
+
+    private static void add(long[] target, long[] cost) {
+        for (int i = 0; i < target.length; i++) target[i] += cost[i];
+    }
+}
@@ -0,0 +1,149 @@
+package vmtranslator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import vmtranslator.Token.Opcode;
+
+
+/**
+ * DeadFunctionEliminator
+ * Removes functions that can never be called from the whole program
+ *
+ * The body of a function reaches from its function-command to the next
+ * function-command of the unit. Functions are live when they are the entry
+ * of the program or called from a live function or from commands in front
+ * of the first function of a unit, by a call or a tail call. The entry is Sys.init, or the first
+ * function of the first unit when there is no Sys.init.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.1
+ */
+public class DeadFunctionEliminator {
+    private static final String ENTRY = "Sys.init";
+
+    private List<CommandList> units;
+
+    // Key: function name, Value: unit index, first and behind last command
+    private Map<String, int[]> bodies;
+
+    // Key: function name, Value: its commands, in order of the program
+    private Map<String, CommandList> removedFunctions;
+
+
+    /**
+     * Constructor
+     *
+     * @param units The commands of all translation units, in translation order
+     */
+    public DeadFunctionEliminator(List<CommandList> units) {
+        this.units = units;
+        this.bodies = new HashMap<>();
+        this.removedFunctions = new LinkedHashMap<>();
+    }
+
+
+    /**
+     * Remove all functions not reachable from the entry
+     *
+     * @return The commands of the units without dead functions
+     */
+    public List<CommandList> eliminate() {
+        findBodies();
+
+        // Mark live functions, starting at the entry
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        Set<String> live = new HashSet<>();
+        String entry = findEntry();
+        if (entry != null) pending.add(entry);
+
+        for (CommandList commands : units) {
+            for (int i = 0; i < commands.size() && commands.getOpcode(i) != Opcode.FUNCTION; i++)
+                if (isCall(commands.getOpcode(i))) pending.add(commands.getSymbolName(i));
+        }
+
+        while (!pending.isEmpty()) {
+            String function = pending.poll();
+            int[] body = bodies.get(function);
+            if (body == null || !live.add(function)) continue;
+
+            CommandList commands = units.get(body[0]);
+            for (int i = body[1]; i < body[2]; i++)
+                if (isCall(commands.getOpcode(i))) pending.add(commands.getSymbolName(i));
+        }
+
+        // Copy all commands outside of dead bodies
+        List<CommandList> liveUnits = new ArrayList<>(units.size());
+        for (CommandList commands : units) {
+            CommandList liveCommands = new CommandList();
+            CommandList target = liveCommands;
+
+            for (int i = 0; i < commands.size(); i++) {
+                if (commands.getOpcode(i) == Opcode.FUNCTION) {
+                    String function = commands.getSymbolName(i);
+                    if (live.contains(function)) target = liveCommands;
+                    else {
+                        target = new CommandList();
+                        removedFunctions.put(function, target);
+                    }
+                }
+                target.add(commands, i);
+            }
+            liveUnits.add(liveCommands);
+        }
+
+        return liveUnits;
+    }
+
+
+    /**
+     * Find the body of every function
+     */
+    private void findBodies() {
+        for (int unit = 0; unit < units.size(); unit++) {
+            CommandList commands = units.get(unit);
+            int[] body = null;
+
+            for (int i = 0; i < commands.size(); i++) {
+                if (commands.getOpcode(i) != Opcode.FUNCTION) continue;
+
+                if (body != null) body[2] = i;
+                body = new int[] { unit, i, commands.size() };
+                bodies.put(commands.getSymbolName(i), body);
+            }
+        }
+    }
+
+
+    /**
+     * Check for a command entering another function,
+     * tail calls of CallOptimizer are calls as well
+     */
+    private static boolean isCall(Opcode op) {
+        return op == Opcode.CALL || op == Opcode.TAIL_CALL;
+    }
+
+
+    /**
+     * Get the entry of the program, null if there are no functions
+     */
+    private String findEntry() {
+        if (bodies.containsKey(ENTRY)) return ENTRY;
+
+        for (CommandList commands : units) {
+            for (int i = 0; i < commands.size(); i++)
+                if (commands.getOpcode(i) == Opcode.FUNCTION) return commands.getSymbolName(i);
+        }
+        return null;
+    }
+
+
+    /* GETTERS */
+    public Map<String, CommandList> getRemovedFunctions() { return removedFunctions; }
+}
@@ -0,0 +1,45 @@
+package vmtranslator;
+
+import java.io.IOException;
+
+
+/**
+ * Emitter
+ * Target of the translated Hack-Assembly commands
+ *
+ * The CodeWriter hands every command to an emitter as an A-Instruction,
+ * a C-Instruction or a label, the emitter decides how the program is written.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+public interface Emitter {
+    /**
+     * Emit an A-Instruction
+     *
+     * @param symbol Symbol or decimal constant, without @
+     */
+    void address(String symbol) throws IOException;
+
+
+    /**
+     * Emit a C-Instruction
+     *
+     * @param instruction Instruction of the form dest=comp;jump
+     */
+    void compute(String instruction) throws IOException;
+
+
+    /**
+     * Emit a label for the next instruction
+     *
+     * @param label Name of the label, without parentheses
+     */
+    void label(String label) throws IOException;
+
+
+    /**
+     * Finish the program and close the output-file
+     */
+    void close() throws IOException;
+}
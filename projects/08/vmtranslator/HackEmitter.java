@@ -0,0 +1,222 @@
+package vmtranslator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * HackEmitter
+ * Encodes the program directly into Hack machine code and writes a .hack-file
+ *
+ * Instructions are encoded into words as they are emitted, no assembly text
+ * is written or read again. A symbol that is not known yet gets a placeholder
+ * word and is resolved on close(): as a label when it was defined later,
+ * otherwise as a variable from address 16 on, in order of first use, just
+ * like the assembler of project 06 does. A program that does not fit into
+ * the 32K ROM, or an address that does not fit into 15 bit, is an error.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.2
+ */
+public class HackEmitter implements Emitter {
+    private static final int FIRST_VARIABLE = 16;
+    private static final int C_INSTRUCTION = 0xE000;
+    private static final int MAX_ADDRESS = 0x7FFF;
+    private static final int ROM_SIZE = 32768;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private static final Map<String, Integer> PREDEFINED = new HashMap<>();
+    private static final Map<String, Integer> DEST = new HashMap<>();
+    private static final Map<String, Integer> COMP = new HashMap<>();
+    private static final Map<String, Integer> JUMP = new HashMap<>();
+
+    static {
+        PREDEFINED.put("SP", 0);
+        PREDEFINED.put("LCL", 1);
+        PREDEFINED.put("ARG", 2);
+        PREDEFINED.put("THIS", 3);
+        PREDEFINED.put("THAT", 4);
+        for (int i = 0; i < 16; i++) PREDEFINED.put("R" + i, i);
+        PREDEFINED.put("SCREEN", 16384);
+        PREDEFINED.put("KBD", 24576);
+
+        String[] dest = { "", "M", "D", "MD", "A", "AM", "AD", "AMD" };
+        for (int i = 0; i < dest.length; i++) DEST.put(dest[i], i << 3);
+        DEST.put("DM", DEST.get("MD"));
+
+        String[] jump = { "", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP" };
+        for (int i = 0; i < jump.length; i++) JUMP.put(jump[i], i);
+
+        // a-bit and c-bits, the M-forms set the a-bit
+        String[][] comp = {
+            { "0", "0101010" }, { "1", "0111111" }, { "-1", "0111010" },
+            { "D", "0001100" }, { "A", "0110000" }, { "!D", "0001101" },
+            { "!A", "0110001" }, { "-D", "0001111" }, { "-A", "0110011" },
+            { "D+1", "0011111" }, { "A+1", "0110111" }, { "D-1", "0001110" },
+            { "A-1", "0110010" }, { "D+A", "0000010" }, { "D-A", "0010011" },
+            { "A-D", "0000111" }, { "D&A", "0000000" }, { "D|A", "0010101" },
+            { "A+D", "0000010" }, { "A&D", "0000000" }, { "A|D", "0010101" }
+        };
+        for (String[] c : comp) {
+            int bits = Integer.parseInt(c[1], 2) << 6;
+            COMP.put(c[0], bits);
+            if (c[0].indexOf('A') != -1) COMP.put(c[0].replace('A', 'M'), bits | (1 << 12));
+        }
+    }
+
+    private String filename;
+
+    private short[] words;
+    private int count;
+
+    // Largest address or constant of all A-Instructions, checked on close()
+    private int largestAddress;
+
+    // Key: label, Value: address of the instruction after it
+    private Map<String, Integer> labels;
+
+    // A-Instructions with a symbol that was not defined when emitted
+    private List<String> unresolvedSymbols;
+    private List<Integer> unresolvedAddresses;
+
+    // Key: C-Instruction, Value: its word, the same few instructions repeat
+    private Map<String, Integer> encodedInstructions;
+
+
+    /**
+     * Constructor
+     *
+     * @param filename Name of the .hack-file
+     */
+    public HackEmitter(String filename) {
+        this.filename = filename;
+        this.words = new short[INITIAL_CAPACITY];
+        this.count = 0;
+        this.largestAddress = 0;
+
+        this.labels = new HashMap<>(PREDEFINED);
+        this.unresolvedSymbols = new ArrayList<>();
+        this.unresolvedAddresses = new ArrayList<>();
+        this.encodedInstructions = new HashMap<>();
+    }
+
+
+    @Override
+    public void address(String symbol) {
+        if (Character.isDigit(symbol.charAt(0))) {
+            addAddress(Integer.parseInt(symbol));
+            return;
+        }
+
+        Integer value = labels.get(symbol);
+        if (value == null) {
+            unresolvedSymbols.add(symbol);
+            unresolvedAddresses.add(count);
+            value = 0;
+        }
+        addAddress(value);
+    }
+
+
+    @Override
+    public void compute(String instruction) {
+        Integer word = encodedInstructions.get(instruction);
+        if (word == null) {
+            word = encode(instruction);
+            encodedInstructions.put(instruction, word);
+        }
+        add(word);
+    }
+
+
+    @Override
+    public void label(String label) {
+        labels.put(label, count);
+    }
+
+
+    /**
+     * Resolve the remaining symbols and write the .hack-file
+     */
+    @Override
+    public void close() throws IOException {
+        int nextVariable = FIRST_VARIABLE;
+        for (int i = 0; i < unresolvedSymbols.size(); i++) {
+            String symbol = unresolvedSymbols.get(i);
+            Integer value = labels.get(symbol);
+            if (value == null) {
+                value = nextVariable++;
+                labels.put(symbol, value);
+            }
+            words[unresolvedAddresses.get(i)] = value.shortValue();
+            largestAddress = Math.max(largestAddress, value);
+        }
+
+        if (count > ROM_SIZE) {
+            System.out.println("[Error] Program does not fit into ROM (" + count + " instructions)!");
+            System.exit(-1);
+        }
+        if (largestAddress > MAX_ADDRESS) {
+            System.out.println("[Error] Address " + largestAddress + " is out of range!");
+            System.exit(-1);
+        }
+
+        String lineSeparator = System.lineSeparator();
+        int recordLength = 16 + lineSeparator.length();
+        char[] text = new char[count * recordLength];
+        for (int i = 0; i < count; i++) {
+            int offset = i * recordLength;
+            for (int bit = 15; bit >= 0; bit--)
+                text[offset++] = (char) ('0' + ((words[i] >>> bit) & 1));
+            lineSeparator.getChars(0, lineSeparator.length(), text, offset);
+        }
+
+        Files.write(Paths.get(filename), new String(text).getBytes(StandardCharsets.US_ASCII));
+    }
+
+
+    /**
+     * Encode a C-Instruction of the form dest=comp;jump
+     */
+    private static int encode(String instruction) {
+        int equalsIndex = instruction.indexOf('=');
+        int semicolonIndex = instruction.indexOf(';');
+
+        String dest = (equalsIndex != -1) ? instruction.substring(0, equalsIndex) : "";
+        String comp = instruction.substring(
+            equalsIndex + 1, (semicolonIndex != -1) ? semicolonIndex : instruction.length()
+        );
+        String jump = (semicolonIndex != -1) ? instruction.substring(semicolonIndex + 1) : "";
+
+        if (!DEST.containsKey(dest) || !COMP.containsKey(comp) || !JUMP.containsKey(jump)) {
+            System.out.println("[Error] Invalid instruction: " + instruction);
+            System.exit(-1);
+        }
+        return C_INSTRUCTION | DEST.get(dest) | COMP.get(comp) | JUMP.get(jump);
+    }
+
+
+    /**
+     * Add an A-Instruction word
+     */
+    private void addAddress(int value) {
+        largestAddress = Math.max(largestAddress, value);
+        add(value);
+    }
+
+
+    /**
+     * Add an instruction word
+     */
+    private void add(int word) {
+        if (count == words.length) words = Arrays.copyOf(words, 2 * count);
+        words[count++] = (short) word;
+    }
+}
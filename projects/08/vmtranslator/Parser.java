@@ -4,9 +4,10 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import vmtranslator.Token.OpType;
+import java.util.Arrays;
+
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Segment;
 
 
 /**
@@ -14,12 +15,12 @@ import vmtranslator.Token.OpType;
  * Parses through the input file and gets all the commands
  * 
  * @author Sirat Ahmadi
- * @version 1.1
+ * @version 1.6
  */
 public class Parser {
     private String fileName;
     private String filePath;
-    private List<Map<String, String>> commands;
+    private CommandList commands;
 
 
     /**
@@ -30,7 +31,7 @@ public class Parser {
     public Parser(String fileName, String filePath) {
         this.fileName = fileName;
         this.filePath = filePath;
-        this.commands = new ArrayList<Map<String, String>>();
+        this.commands = new CommandList();
     }
 
 
@@ -39,61 +40,33 @@ public class Parser {
      * and store commands into list
      */
     public void parse() {
-        String p = (filePath.endsWith("/")) ? filePath : filePath + "/";
-        String n = (fileName.endsWith(".vm")) ? fileName : fileName + ".vm";
-        String inputFilename = p + n;
-
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(inputFilename))) {
-            String line = bufferedReader.readLine().strip();
-            String[] lineSplitted;
-            ArrayList<String> tmpCommandParts = new ArrayList<>();
-
-            while (line != null) {
-                tmpCommandParts.clear();
-
-                // Skip comments and empty lines
-                if (
-                    line.startsWith(Token.SINGLE_COMMENT) ||
-                    line.equals(Token.EMPTY) || 
-                    line.equals(Token.SPACE)
-                ) {
-                    line = bufferedReader.readLine();
-                }
-                else {
-                    lineSplitted = line.split(Token.SPACE);
-                    for (String token : lineSplitted) {
-                        // Skip all parts after a comment starts,
-                        // and skip all parts that are spaces
-                        if (token.equals(Token.SINGLE_COMMENT)) break;
-                        if (token.matches(Token.SPACE)) continue;
-
-                        tmpCommandParts.add(token);
-                    }
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(getInputFilename()))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null)
+                parseLine(line);
+        }
+        catch (IOException ex) {
+            System.out.println("[Error] Parsing failed!");
+            System.exit(-1);
+        }
+    }
 
-                    if (tmpCommandParts.size() > 0) {
-                        // Commands of two different length are allowed
-                        // Length 1: add, sub, eq, ...
-                        // Length 2: push constant 1, pop static 1, ...
-                        // Add all command-parts into the commands-list
-                        if (tmpCommandParts.size() > 3) {
-                            System.out.println("[Error] Invalid command in .vm file!");
-                            System.exit(-1);
-                        }
-    
-                        OpType operationType = getCommandsOperationType(tmpCommandParts.get(0));
-                        commands.add(
-                            Map.of(
-                                "type", operationType.toString(),
-                                "operation", tmpCommandParts.get(0),
-                                "arg1", (tmpCommandParts.size() > 1) ? tmpCommandParts.get(1) : "",
-                                "arg2", (tmpCommandParts.size() > 2) ? tmpCommandParts.get(2) : ""
-                            )
-                        );
-                    }
 
-                    line = bufferedReader.readLine();
-                }
+    /**
+     * Parse the input-file line by line and hand every command
+     * to the codeWriter right away, only one line is held in memory
+     * 
+     * @param codeWriter CodeWriter translating the commands
+     */
+    public void stream(CodeWriter codeWriter) {
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(getInputFilename()))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                commands.clear();
+                parseLine(line);
+                codeWriter.translateCommands(commands);
             }
+            commands.clear();
         }
         catch (IOException ex) {
             System.out.println("[Error] Parsing failed!");
@@ -103,45 +76,90 @@ public class Parser {
 
 
     /**
-     * Get the Operation-Type of current command
+     * Get the input-filename with .vm file-extension
+     */
+    public String getInputFilename() {
+        String p = (filePath.endsWith("/")) ? filePath : filePath + "/";
+        String n = (fileName.endsWith(".vm")) ? fileName : fileName + ".vm";
+        return p + n;
+    }
+
+
+    /**
+     * Parse a single line
+     * and add its command to the list
+     * 
+     * @param line Line of the input-file
+     */
+    public void parseLine(String line) {
+        // Skip comments and empty lines
+        int commentIndex = line.indexOf(Token.SINGLE_COMMENT);
+        if (commentIndex != -1) line = line.substring(0, commentIndex);
+        line = line.strip();
+        if (line.equals(Token.EMPTY)) return;
+
+        ArrayList<String> tmpCommandParts = new ArrayList<>(Arrays.asList(line.split(Token.SPACE)));
+
+        // Commands of two different length are allowed
+        // Length 1: add, sub, eq, ...
+        // Length 2: push constant 1, pop static 1, ...
+        // Add all command-parts into the commands-list
+        if (tmpCommandParts.size() > 3) {
+            System.out.println("[Error] Invalid command in .vm file!");
+            System.exit(-1);
+        }
+
+        addCommand(tmpCommandParts);
+    }
+
+
+    /**
+     * Add the command to the commands-list
      * 
-     * @param commandOperationPart Only the opeartion part of the command
-     * @return Operation-Type
+     * @param parts Operation and arguments of the command
      */
-    private OpType getCommandsOperationType(String commandOperationPart) {
-        if (
-            commandOperationPart.equals("add") ||
-            commandOperationPart.equals("sub") ||
-            commandOperationPart.equals("neg") ||
-            commandOperationPart.equals("eq") ||
-            commandOperationPart.equals("gt") ||
-            commandOperationPart.equals("lt") ||
-            commandOperationPart.equals("and") ||
-            commandOperationPart.equals("or") ||
-            commandOperationPart.equals("not")
-        ) return OpType.ARITHMETIC;
-        else if (commandOperationPart.equals("pop"))
-            return OpType.POP;
-        else if (commandOperationPart.equals("push"))
-            return OpType.PUSH;
-        else if (commandOperationPart.equals("label"))
-            return OpType.LABEL;
-        else if (commandOperationPart.equals("goto"))
-            return OpType.GOTO;
-        else if (commandOperationPart.equals("if-goto"))
-            return OpType.IF;
-        else if (commandOperationPart.equals("function"))
-            return OpType.FUNCTION;
-        else if (commandOperationPart.equals("call"))
-            return OpType.CALL;
-        else if (commandOperationPart.equals("return"))
-            return OpType.RETURN;
-        else {
+    private void addCommand(ArrayList<String> parts) {
+        Opcode opcode = Token.OPCODES.get(parts.get(0));
+        if (opcode == null) {
             System.out.println("[Error] Operation unknown!");
             System.exit(-1);
         }
 
-        return null;
+        Segment segment = Segment.NONE;
+        int symbol = CommandList.NO_SYMBOL;
+        int argument = CommandList.NO_ARGUMENT;
+
+        try {
+            switch (opcode) {
+                case PUSH:
+                case POP:
+                    segment = Token.SEGMENTS.get(parts.get(1));
+                    argument = Integer.parseInt(parts.get(2));
+                    if (segment == null) {
+                        System.out.println("[Error] First argument unknown!");
+                        System.exit(-1);
+                    }
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    symbol = commands.intern(parts.get(1));
+                    break;
+                case FUNCTION:
+                case CALL:
+                    symbol = commands.intern(parts.get(1));
+                    argument = Integer.parseInt(parts.get(2));
+                    break;
+                default:
+                    break;
+            }
+        }
+        catch (IndexOutOfBoundsException | NumberFormatException ex) {
+            System.out.println("[Error] Invalid command in .vm file!");
+            System.exit(-1);
+        }
+
+        commands.add(opcode, segment, symbol, argument);
     }
 
 
@@ -152,6 +170,10 @@ public class Parser {
     public String getFilePath() { return filePath; }
     public void setFilePath(String value) { filePath = value; }
 
-    public List<Map<String, String>> getCommands() { return commands; } 
-    public void setCommands(List<Map<String, String>> value) { commands = value; }
+    public String getUnitName() {
+        return (fileName.endsWith(".vm")) ? fileName.substring(0, fileName.length() - 3) : fileName;
+    }
+
+    public CommandList getCommands() { return commands; } 
+    public void setCommands(CommandList value) { commands = value; }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package vmtranslator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * PeepholeCheck
+ * Checks that PeepholeOptimizer keeps the meaning of VM programs
+ *
+ * Every rule is run on short command sequences, before and after optimize(),
+ * by VMInterpreter from random memory. The programs found in the given
+ * directories, e.g. projects/07 and projects/08, are run the same way until
+ * they halt, with the RAM set like their .tst-scripts do. Both runs must
+ * end with the same stack, the same segments and statics and the same
+ * memory from 2048 on. The stack above SP is free and not compared,
+ * dropped pushes leave their value there.
+ *
+ * Execute: java vmtranslator.PeepholeCheck [directory ...]
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+public class PeepholeCheck {
+    private static final int SEEDS = 16;
+    private static final long MAX_STEPS = 10_000_000;
+    private static final String CASE_UNIT = "Case";
+    private static final int CASE_STACK_SIZE = 4;
+    private static final int CASE_STATICS = 4;
+
+    // set RAM[address] value, in the test scripts
+    private static final Pattern SET_RAM = Pattern.compile("set\\s+RAM\\[(\\d+)\\]\\s+(-?\\d+)");
+
+    // Every rule, with the lowest and highest constants and pointer targets,
+    // and sequences only matching after an earlier rewrite
+    private static final String[][] RULE_CASES = {
+        { "push constant 0", "add" },
+        { "push constant 0", "sub" },
+        { "push constant 0", "or" },
+        { "push constant 7", "add" },
+        { "push constant 7", "sub" },
+        { "push constant 32767", "add" },
+        { "push constant 32767", "sub" },
+        { "not", "not" },
+        { "neg", "neg" },
+        { "push local 2", "pop local 2" },
+        { "push local 2", "pop argument 1" },
+        { "push constant 9", "pop that 3" },
+        { "push static 2", "pop temp 6" },
+        { "push temp 1", "pop static 0" },
+        { "push pointer 0", "pop pointer 1" },
+        { "push that 1", "pop pointer 1" },
+        { "push this 0", "pop this 1" },
+        { "push constant 0", "push constant 0", "add", "add" },
+        { "push constant 3", "push constant 0", "sub", "sub" }
+    };
+
+
+    public static void main(String[] args) {
+        for (String[] lines : RULE_CASES) checkRule(lines);
+        System.out.println("[OK] " + RULE_CASES.length + " rule cases with " + SEEDS + " memories each");
+
+        for (String directory : args) {
+            try (Stream<Path> paths = Files.walk(Paths.get(directory))) {
+                for (Path program : paths.filter(PeepholeCheck::hasVMFiles).sorted().collect(Collectors.toList()))
+                    checkProgram(program);
+            }
+            catch (IOException ex) {
+                System.out.println("[Error] Reading " + directory + " failed.");
+                System.exit(-1);
+            }
+        }
+    }
+
+
+    /**
+     * Run a command sequence before and after optimization
+     *
+     * @param lines The VM-Commands
+     */
+    private static void checkRule(String[] lines) {
+        String name = String.join(" / ", lines);
+
+        Parser parser = new Parser(CASE_UNIT, "");
+        for (String line : lines) parser.parseLine(line);
+        CommandList original = parser.getCommands();
+        CommandList optimized = PeepholeOptimizer.optimize(original);
+
+        boolean rewritten = optimized.size() < original.size();
+        for (int i = 0; i < optimized.size(); i++) rewritten |= optimized.getOpcode(i).isInternal();
+        if (!rewritten) fail(name, "no rule matched");
+
+        for (int seed = 0; seed < SEEDS; seed++) {
+            VMInterpreter before = caseInterpreter(original, seed);
+            VMInterpreter after = caseInterpreter(optimized, seed);
+            before.run(lines.length);
+            after.run(lines.length);
+            compare(name + " (memory " + seed + ")", before, after);
+        }
+    }
+
+
+    /**
+     * Create an interpreter for a command sequence, with random memory,
+     * values on the stack and segments inside of RAM
+     */
+    private static VMInterpreter caseInterpreter(CommandList commands, int seed) {
+        VMInterpreter interpreter = new VMInterpreter(Arrays.asList(commands), Arrays.asList(CASE_UNIT));
+
+        Random random = new Random(seed);
+        short[] ram = randomRam(random);
+        ram[0] = (short) (VMInterpreter.STACK_BASE + CASE_STACK_SIZE);
+        setSegments(ram);
+        interpreter.setRam(ram);
+
+        for (int i = 0; i < CASE_STATICS; i++)
+            interpreter.getStatics().put(CASE_UNIT + "." + i, (short) random.nextInt());
+        return interpreter;
+    }
+
+
+    /**
+     * Run a program before and after optimization of all of its units
+     *
+     * @param directory Directory with the .vm-files of the program
+     */
+    private static void checkProgram(Path directory) {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(".vm"));
+        Arrays.sort(files);
+
+        List<String> names = new ArrayList<>();
+        List<CommandList> original = new ArrayList<>();
+        List<CommandList> optimized = new ArrayList<>();
+        int originalSize = 0;
+        int optimizedSize = 0;
+        for (File file : files) {
+            Parser parser = new Parser(file.getName(), directory.toString());
+            parser.parse();
+
+            names.add(parser.getUnitName());
+            original.add(parser.getCommands());
+            optimized.add(PeepholeOptimizer.optimize(parser.getCommands()));
+            originalSize += original.get(original.size() - 1).size();
+            optimizedSize += optimized.get(optimized.size() - 1).size();
+        }
+
+        Path script = directory.resolve(directory.getFileName() + ".tst");
+        VMInterpreter before = programInterpreter(original, names, script);
+        VMInterpreter after = programInterpreter(optimized, names, script);
+        if (!before.run(MAX_STEPS) || !after.run(MAX_STEPS)) fail(directory.toString(), "did not halt");
+        compare(directory.toString(), before, after);
+
+        System.out.println(
+            "[OK] " + directory + ": " + originalSize + " -> " + optimizedSize + " commands, " +
+            before.getSteps() + " -> " + after.getSteps() + " commands run"
+        );
+    }
+
+
+    /**
+     * Create an interpreter for a program, with random memory, the segments
+     * the tests of projects 07 and 08 use and the RAM set by the test script
+     */
+    private static VMInterpreter programInterpreter(List<CommandList> units, List<String> names, Path script) {
+        VMInterpreter interpreter = new VMInterpreter(units, names);
+
+        short[] ram = randomRam(new Random(0));
+        ram[0] = (short) VMInterpreter.STACK_BASE;
+        setSegments(ram);
+
+        if (Files.isRegularFile(script)) {
+            try {
+                Matcher matcher = SET_RAM.matcher(new String(Files.readAllBytes(script)));
+                while (matcher.find())
+                    ram[Integer.parseInt(matcher.group(1))] = (short) Integer.parseInt(matcher.group(2));
+            }
+            catch (IOException ex) {
+                fail(script.toString(), "reading failed");
+            }
+        }
+        interpreter.setRam(ram);
+
+        interpreter.bootstrap();
+        return interpreter;
+    }
+
+
+    private static short[] randomRam(Random random) {
+        short[] ram = new short[VMInterpreter.RAM_SIZE];
+        for (int i = 0; i < ram.length; i++) ram[i] = (short) random.nextInt();
+        return ram;
+    }
+
+
+    private static void setSegments(short[] ram) {
+        ram[Token.LOCAL_BASE] = 300;
+        ram[Token.ARGUMENT_BASE] = 400;
+        ram[Token.THIS_BASE] = 3000;
+        ram[Token.THAT_BASE] = 3010;
+    }
+
+
+    /**
+     * Compare the stack, the segments, the statics and the memory of two runs
+     */
+    private static void compare(String name, VMInterpreter before, VMInterpreter after) {
+        short[] a = before.getRam();
+        short[] b = after.getRam();
+        if (a[0] != b[0]) fail(name, "SP is " + b[0] + " instead of " + a[0]);
+
+        // Pointers, temp and the stack below SP
+        int stackEnd = Math.min(a[0] & 0xFFFF, VMInterpreter.HEAP_BASE);
+        for (int i = 0; i < stackEnd; i++)
+            if (a[i] != b[i]) fail(name, "RAM[" + i + "] is " + b[i] + " instead of " + a[i]);
+
+        // Heap, screen and keyboard
+        for (int i = VMInterpreter.HEAP_BASE; i < a.length; i++)
+            if (a[i] != b[i]) fail(name, "RAM[" + i + "] is " + b[i] + " instead of " + a[i]);
+
+        if (!before.getStatics().equals(after.getStatics())) fail(name, "the statics differ");
+    }
+
+
+    private static boolean hasVMFiles(Path directory) {
+        if (!Files.isDirectory(directory)) return false;
+        String[] files = directory.toFile().list((dir, name) -> name.endsWith(".vm"));
+        return files != null && files.length > 0;
+    }
+
+
+    private static void fail(String name, String reason) {
+        System.out.println("[Error] " + name + ": " + reason);
+        System.exit(-1);
+    }
+}
@@ -0,0 +1,141 @@
+package vmtranslator;
+
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Segment;
+
+
+/**
+ * PeepholeOptimizer
+ * Rewrites short sequences of VM-Commands before they are translated
+ *
+ * Every rule only matches commands that follow each other directly,
+ * a label in between is a command of its own and always stops a match.
+ * A rule leaves the stack, the segments and the memory as the original
+ * commands would, so every later command sees the same state:
+ *
+ *   push constant 0 / add, sub, or    Both are dropped, x is unchanged
+ *   push constant c / add             add-constant c, adds c to x in place
+ *   push constant c / sub             add-constant -c
+ *   not / not, neg / neg              Both are dropped
+ *   push S i / pop S i                Both are dropped, S i is unchanged
+ *   push S i / pop T j                load S i / store T j, the value is
+ *                                     moved through D instead of the stack
+ *
+ * Only the free stack above SP may hold other values afterwards.
+ * PeepholeCheck runs every rule and the programs of projects 07 and 08
+ * before and after optimization and compares the results.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.1
+ */
+public class PeepholeOptimizer {
+
+    /**
+     * A rewrite rule
+     */
+    private interface Rule {
+        /**
+         * Try the rule at a command
+         *
+         * @param commands The commands
+         * @param i Index of the first command
+         * @param optimized List of the rewritten commands
+         * @return The number of commands replaced, 0 when the rule does not match
+         */
+        int apply(CommandList commands, int i, CommandList optimized);
+    }
+
+
+    private static final Rule[] RULES = {
+        // x+0, x-0 and x|0 are x
+        (commands, i, optimized) -> {
+            if (!isConstant(commands, i, 0) || i + 1 >= commands.size()) return 0;
+            Opcode op = commands.getOpcode(i + 1);
+            return (op == Opcode.ADD || op == Opcode.SUB || op == Opcode.OR) ? 2 : 0;
+        },
+
+        // Add a constant to x in place
+        (commands, i, optimized) -> {
+            if (!isConstant(commands, i, -1) || i + 1 >= commands.size()) return 0;
+            Opcode op = commands.getOpcode(i + 1);
+            if (op != Opcode.ADD && op != Opcode.SUB) return 0;
+
+            int constant = (op == Opcode.ADD) ? commands.getArgument(i) : -commands.getArgument(i);
+            optimized.add(Opcode.ADD_CONSTANT, Segment.NONE, CommandList.NO_SYMBOL, constant);
+            return 2;
+        },
+
+        // Operations that undo themselves
+        (commands, i, optimized) -> {
+            if (i + 1 >= commands.size()) return 0;
+            Opcode op = commands.getOpcode(i);
+            return ((op == Opcode.NOT || op == Opcode.NEG) && commands.getOpcode(i + 1) == op) ? 2 : 0;
+        },
+
+        // Move a value between segments without the stack
+        (commands, i, optimized) -> {
+            if (
+                i + 1 >= commands.size() ||
+                commands.getOpcode(i) != Opcode.PUSH ||
+                commands.getOpcode(i + 1) != Opcode.POP
+            ) return 0;
+
+            Segment source = commands.getSegment(i);
+            Segment target = commands.getSegment(i + 1);
+            if (source == target && commands.getArgument(i) == commands.getArgument(i + 1)) return 2;
+
+            optimized.add(Opcode.LOAD, source, CommandList.NO_SYMBOL, commands.getArgument(i));
+            optimized.add(Opcode.STORE, target, CommandList.NO_SYMBOL, commands.getArgument(i + 1));
+            return 2;
+        }
+    };
+
+
+    /**
+     * Apply all rules until none matches anymore
+     *
+     * @param commands The commands of a translation unit
+     * @return The optimized commands
+     */
+    public static CommandList optimize(CommandList commands) {
+        int size;
+        do {
+            size = commands.size();
+            commands = rewrite(commands);
+        } while (commands.size() < size);
+
+        return commands;
+    }
+
+
+    /**
+     * Apply the first matching rule at every command
+     */
+    private static CommandList rewrite(CommandList commands) {
+        CommandList optimized = new CommandList();
+
+        for (int i = 0; i < commands.size(); i++) {
+            int replaced = 0;
+            for (Rule rule : RULES) {
+                replaced = rule.apply(commands, i, optimized);
+                if (replaced != 0) break;
+            }
+
+            if (replaced == 0) optimized.add(commands, i);
+            else i += replaced - 1;
+        }
+        return optimized;
+    }
+
+
+    /**
+     * Check for push constant
+     *
+     * @param value The constant, -1 for any constant
+     */
+    private static boolean isConstant(CommandList commands, int i, int value) {
+        return commands.getOpcode(i) == Opcode.PUSH &&
+            commands.getSegment(i) == Segment.CONSTANT &&
+            (value == -1 || commands.getArgument(i) == value);
+    }
+}
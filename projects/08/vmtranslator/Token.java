@@ -1,27 +1,114 @@
 package vmtranslator;
 
+import java.util.HashMap;
+import java.util.Map;
+
+
 /**
  * Token
  * Store Hack-Assembly tokens
  * 
  * @author Sirat Ahmadi
- * @version 1.1
+ * @version 1.4
  */
 public class Token {
     public static final String SINGLE_COMMENT = "//";
     public static final String EMPTY = "";
     public static final String SPACE = "\\s+";
 
-    public static enum OpType {
-        PUSH,
-        POP,
-        ARITHMETIC,
-        LABEL,
-        GOTO,
-        IF,
-        FUNCTION,
-        CALL,
-        RETURN
+    public static enum Opcode {
+        ADD("add"),
+        SUB("sub"),
+        NEG("neg"),
+        EQ("eq"),
+        GT("gt"),
+        LT("lt"),
+        AND("and"),
+        OR("or"),
+        NOT("not"),
+        PUSH("push"),
+        POP("pop"),
+        LABEL("label"),
+        GOTO("goto"),
+        IF_GOTO("if-goto"),
+        FUNCTION("function"),
+        CALL("call"),
+        RETURN("return"),
+
+        // Internal commands, not accepted in .vm-files
+        // Fused comparison and if-goto, only created by BranchFusion
+        IF_EQ("if-eq"),
+        IF_NE("if-ne"),
+        IF_GT("if-gt"),
+        IF_LE("if-le"),
+        IF_LT("if-lt"),
+        IF_GE("if-ge"),
+
+        // Rewritten commands, only created by PeepholeOptimizer
+        ADD_CONSTANT("add-constant"),
+        LOAD("load"),
+        STORE("store"),
+
+        // Call reusing the frame, only created by CallOptimizer
+        TAIL_CALL("tail-call");
+
+        public final String mnemonic;
+
+        Opcode(String mnemonic) { this.mnemonic = mnemonic; }
+
+        public boolean isArithmetic() { return ordinal() <= NOT.ordinal(); }
+
+        public boolean isInternal() { return ordinal() > RETURN.ordinal(); }
+    }
+
+    public static enum Segment {
+        NONE(""),
+        ARGUMENT("argument"),
+        LOCAL("local"),
+        STATIC("static"),
+        CONSTANT("constant"),
+        THIS("this"),
+        THAT("that"),
+        POINTER("pointer"),
+        TEMP("temp");
+
+        public final String mnemonic;
+
+        Segment(String mnemonic) { this.mnemonic = mnemonic; }
+    }
+
+    public static enum Option {
+        SHARED_CALLS("-shared-calls", false),
+        SHARED_COMPARISONS("-shared-compare", false),
+        FUSE_BRANCHES("-fuse-branches", true),
+        OPTIMIZE("-optimize", true),
+        CACHE_TOP("-cache-top", false),
+        ELIMINATE_DEAD("-eliminate-dead", true),
+        INLINE("-inline", true),
+        TAIL_CALLS("-tail-calls", true),
+        BINARY("-binary", false);
+
+        public final String flag;
+
+        // Rewrites all commands of a unit, not possible while streaming
+        public final boolean wholeUnit;
+
+        Option(String flag, boolean wholeUnit) {
+            this.flag = flag;
+            this.wholeUnit = wholeUnit;
+        }
+    }
+
+    public static final Map<String, Opcode> OPCODES = new HashMap<>();
+    public static final Map<String, Segment> SEGMENTS = new HashMap<>();
+    public static final Map<String, Option> OPTIONS = new HashMap<>();
+
+    static {
+        for (Opcode opcode : Opcode.values())
+            if (!opcode.isInternal()) OPCODES.put(opcode.mnemonic, opcode);
+        for (Segment segment : Segment.values())
+            if (segment != Segment.NONE) SEGMENTS.put(segment.mnemonic, segment);
+        for (Option option : Option.values()) OPTIONS.put(option.flag, option);
     }
 
     public static final String LOCAL_CODE = "LCL";
@@ -39,4 +126,13 @@ public class Token {
     public static final int TEMP_BASE = 5;
 
     public static final int STATIC_BASE = 16;
+
+    public static final String CALL_ROUTINE = "$CALL";
+    public static final String RETURN_ROUTINE = "$RETURN";
+
+    public static final String EQ_ROUTINE = "$EQ";
+    public static final String GT_ROUTINE = "$GT";
+    public static final String LT_ROUTINE = "$LT";
+    public static final String COMPARISON_TRUE = "$CMP.TRUE";
+    public static final String COMPARISON_FALSE = "$CMP.FALSE";
 }
\ No newline at end of file
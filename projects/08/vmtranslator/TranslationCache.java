@@ -0,0 +1,201 @@
+package vmtranslator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Option;
+
+
+/**
+ * TranslationCache
+ * Keeps the translated Hack-Assembly of translation units on disk
+ *
+ * An entry is named after the SHA-256 of the unit name, the code generation
+ * options and the content of the .vm-file. The generated labels of a unit
+ * only carry its own name, so an entry fits into every program using it.
+ * With optimizations of the whole program, the translation of a unit also
+ * depends on the other units, their content is added to every key then.
+ *
+ * An entry starts with a line listing the shared routines used by the unit,
+ * then the lines of its cost report, followed by one Hack-Assembly command
+ * per line.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.2
+ */
+public class TranslationCache {
+    private static final String EXTENSION = ".asm";
+    private static final String ROUTINES_PREFIX = "// routines:";
+    private static final String COST_PREFIX = "// cost:";
+
+    // Changes with the layout of an entry, so older entries are not read
+    private static final String FORMAT = "2";
+
+    // Options that only change how the program is written, not its units
+    private static final EnumSet<Option> OUTPUT_OPTIONS = EnumSet.of(Option.BINARY);
+
+    // Options that look at all units of the program at once
+    private static final EnumSet<Option> WHOLE_PROGRAM_OPTIONS = EnumSet.of(
+        Option.INLINE, Option.TAIL_CALLS, Option.ELIMINATE_DEAD
+    );
+
+    private Path directory;
+    private EnumSet<Option> options;
+
+
+    /**
+     * Constructor
+     *
+     * @param directory Directory of the entries, created when missing
+     * @param options Code generation options of the program
+     */
+    public TranslationCache(String directory, Set<Option> options) throws IOException {
+        this.directory = Files.createDirectories(Paths.get(directory));
+        this.options = EnumSet.noneOf(Option.class);
+        this.options.addAll(options);
+        this.options.removeAll(OUTPUT_OPTIONS);
+    }
+
+
+    /**
+     * Compute the keys of all units of a program
+     *
+     * @param parsers Parsers of the translation units in translation order
+     * @return The key of every unit
+     */
+    public List<String> keys(List<Parser> parsers) throws IOException {
+        List<byte[]> contents = new ArrayList<>(parsers.size());
+        for (Parser parser : parsers) contents.add(Files.readAllBytes(Paths.get(parser.getInputFilename())));
+
+        // Every unit of the program, in order
+        byte[] program = new byte[0];
+        if (!isUnitLocal()) {
+            MessageDigest digest = newDigest();
+            for (int i = 0; i < parsers.size(); i++) {
+                digest.update(parsers.get(i).getUnitName().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(newDigest().digest(contents.get(i)));
+            }
+            program = digest.digest();
+        }
+
+        List<String> keys = new ArrayList<>(parsers.size());
+        for (int i = 0; i < parsers.size(); i++) {
+            MessageDigest digest = newDigest();
+            digest.update(FORMAT.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(parsers.get(i).getUnitName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(options.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(program);
+            digest.update(contents.get(i));
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) key.append(String.format("%02x", b));
+            keys.add(key.toString());
+        }
+        return keys;
+    }
+
+
+    /**
+     * Load the translation of a unit
+     *
+     * @param key Key of the unit
+     * @param unitName Name of the unit
+     * @return A unit CodeWriter holding the translation, null when not cached
+     */
+    public CodeWriter load(String key, String unitName) {
+        Path entry = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(entry)) return null;
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+        }
+        catch (IOException ex) {
+            return null;
+        }
+        if (lines.isEmpty() || !lines.get(0).startsWith(ROUTINES_PREFIX)) return null;
+
+        // A damaged entry is a miss, like an unreadable one
+        EnumSet<Opcode> usedRoutines = EnumSet.noneOf(Opcode.class);
+        CostReport costs = new CostReport();
+        int first = 1;
+        try {
+            for (String routine : lines.get(0).substring(ROUTINES_PREFIX.length()).trim().split(" ")) {
+                if (!routine.isEmpty()) usedRoutines.add(Opcode.valueOf(routine));
+            }
+
+            for (; first < lines.size() && lines.get(first).startsWith(COST_PREFIX); first++)
+                costs.decode(lines.get(first).substring(COST_PREFIX.length()));
+        }
+        catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            return null;
+        }
+
+        CodeWriter unit = new CodeWriter(unitName, options);
+        unit.setTranslatedCommands(new ArrayList<>(lines.subList(first, lines.size())));
+        unit.setUsedRoutines(usedRoutines);
+        unit.setCostReport(costs);
+        return unit;
+    }
+
+
+    /**
+     * Store the translation of a unit,
+     * the entry is written to a temporary file first and then moved in place,
+     * so a translator running at the same time never reads half an entry
+     *
+     * @param key Key of the unit
+     * @param unit The unit CodeWriter after translation
+     */
+    public void store(String key, CodeWriter unit) throws IOException {
+        StringBuilder routines = new StringBuilder(ROUTINES_PREFIX);
+        for (Opcode routine : unit.getUsedRoutines()) routines.append(' ').append(routine.name());
+
+        List<String> lines = new ArrayList<>(unit.getTranslatedCommands().size() + 1);
+        lines.add(routines.toString());
+        for (String cost : unit.getCostReport().encode()) lines.add(COST_PREFIX + " " + cost);
+        lines.addAll(unit.getTranslatedCommands());
+
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        Files.move(temporary, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+
+    /**
+     * Check if the translation of a unit only depends on the unit itself
+     */
+    public boolean isUnitLocal() {
+        for (Option option : WHOLE_PROGRAM_OPTIONS)
+            if (options.contains(option)) return false;
+        return true;
+    }
+
+
+    /**
+     * Create a SHA-256 digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
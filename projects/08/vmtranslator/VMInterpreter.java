@@ -0,0 +1,286 @@
+package vmtranslator;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vmtranslator.Token.Opcode;
+import vmtranslator.Token.Segment;
+
+
+/**
+ * VMInterpreter
+ * Runs VM-Commands directly on a simulated RAM, to compare programs
+ *
+ * The RAM has the layout of the Hack platform: SP, LCL, ARG, THIS and THAT
+ * at 0 to 4, temp at 5 and the stack from 256 on. Statics are kept apart,
+ * named unit.index, so their addresses do not depend on the order in which
+ * they are used. A return address is the number of the call, which is the
+ * same in two runs that make the same calls.
+ *
+ * The program halts behind its last command, on a return to an address no
+ * call pushed, or on a goto to the label directly in front of it, the usual
+ * end loop of a program. The commands of PeepholeOptimizer are run as well.
+ *
+ * @author Sirat Ahmadi
+ * @version 1.0
+ */
+public class VMInterpreter {
+    public static final int RAM_SIZE = 32768;
+    public static final int STACK_BASE = 256;
+    public static final int HEAP_BASE = 2048;
+
+    private static final String ENTRY = "Sys.init";
+    private static final int FRAME_SIZE = 5;
+
+    private CommandList program;
+
+    // Unit name and function of every command, labels are local to the function
+    private String[] unitNames;
+    private String[] functionNames;
+
+    // Key: function name or function$label, Value: index of the command
+    private Map<String, Integer> targets;
+
+    // Key: return address pushed by a call, Value: index of the next command
+    private Map<Integer, Integer> returnAddresses;
+    private int callCount;
+
+    private short[] ram;
+    private Map<String, Short> statics;
+
+    // Value moved from load to store
+    private short d;
+
+    private int pc;
+    private long steps;
+
+
+    /**
+     * Constructor
+     *
+     * @param units The commands of all translation units
+     * @param names The names of the units
+     */
+    public VMInterpreter(List<CommandList> units, List<String> names) {
+        this.program = new CommandList();
+        int size = 0;
+        for (CommandList commands : units) size += commands.size();
+        this.unitNames = new String[size];
+        this.functionNames = new String[size];
+        this.targets = new HashMap<>();
+
+        for (int unit = 0; unit < units.size(); unit++) {
+            CommandList commands = units.get(unit);
+            String function = names.get(unit);
+
+            for (int i = 0; i < commands.size(); i++) {
+                int index = program.size();
+                if (commands.getOpcode(i) == Opcode.FUNCTION) {
+                    function = commands.getSymbolName(i);
+                    targets.put(function, index);
+                }
+                else if (commands.getOpcode(i) == Opcode.LABEL) {
+                    targets.put(function + "$" + commands.getSymbolName(i), index);
+                }
+
+                program.add(commands, i);
+                unitNames[index] = names.get(unit);
+                functionNames[index] = function;
+            }
+        }
+
+        this.returnAddresses = new HashMap<>();
+        this.callCount = 0;
+        this.ram = new short[RAM_SIZE];
+        this.statics = new HashMap<>();
+        this.pc = 0;
+        this.steps = 0;
+    }
+
+
+    /**
+     * Set SP to 256 and call Sys.init when the program has one,
+     * otherwise the program starts at its first command
+     */
+    public void bootstrap() {
+        if (!targets.containsKey(ENTRY)) return;
+
+        // Sys.init never returns, a return would halt
+        ram[0] = STACK_BASE;
+        pc = -1;
+        call(ENTRY, 0);
+    }
+
+
+    /**
+     * Run the program until it halts
+     *
+     * @param maxSteps Largest number of commands to run
+     * @return true when the program halted, false when it ran out of steps
+     */
+    public boolean run(long maxSteps) {
+        for (long end = steps + maxSteps; steps < end; steps++) {
+            if (pc < 0 || pc >= program.size()) return true;
+            if (!step()) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Run a single command
+     *
+     * @return false when the program halted
+     */
+    private boolean step() {
+        Opcode op = program.getOpcode(pc);
+        Segment segment = program.getSegment(pc);
+        int argument = program.getArgument(pc);
+        int next = pc + 1;
+
+        switch (op) {
+            case ADD: push(pop() + pop()); break;
+            case SUB: { int y = pop(); push(pop() - y); break; }
+            case AND: push(pop() & pop()); break;
+            case OR: push(pop() | pop()); break;
+            case NEG: push(-pop()); break;
+            case NOT: push(~pop()); break;
+            case EQ: { int y = pop(); push(pop() == y ? -1 : 0); break; }
+            case GT: { int y = pop(); push(pop() > y ? -1 : 0); break; }
+            case LT: { int y = pop(); push(pop() < y ? -1 : 0); break; }
+            case PUSH: push(read(segment, argument)); break;
+            case POP: write(segment, argument, pop()); break;
+            case LABEL: break;
+            case GOTO:
+                next = label(program.getSymbolName(pc));
+                if (next == pc - 1) return false;
+                break;
+            case IF_GOTO:
+                if (pop() != 0) next = label(program.getSymbolName(pc));
+                break;
+            case FUNCTION:
+                for (int i = 0; i < argument; i++) push(0);
+                break;
+            case CALL:
+                String function = program.getSymbolName(pc);
+                pc = next;
+                call(function, argument);
+                return true;
+            case RETURN:
+                Integer returnAddress = ret();
+                if (returnAddress == null) return false;
+                next = returnAddress;
+                break;
+            case ADD_CONSTANT: push(pop() + argument); break;
+            case LOAD: d = read(segment, argument); break;
+            case STORE: write(segment, argument, d); break;
+            default:
+                throw new IllegalStateException("Command not supported: " + op.mnemonic);
+        }
+
+        pc = next;
+        return true;
+    }
+
+
+    /**
+     * Push the frame of a call and jump to the function
+     */
+    private void call(String function, int argumentCount) {
+        int returnAddress = (callCount++) & 0x7FFF;
+        returnAddresses.put(returnAddress, pc);
+
+        push(returnAddress);
+        for (int pointer = 1; pointer <= 4; pointer++) push(ram[pointer]);
+        ram[2] = (short) (ram[0] - argumentCount - FRAME_SIZE);
+        ram[1] = ram[0];
+        Integer index = targets.get(function);
+        if (index == null) throw new IllegalStateException("Unknown function: " + function);
+        pc = index;
+    }
+
+
+    /**
+     * Restore the frame of the caller
+     *
+     * @return The index of the command after the call, null when no call pushed it
+     */
+    private Integer ret() {
+        int frame = ram[1];
+        int returnAddress = ram[address(frame - FRAME_SIZE)];
+        ram[address(ram[2])] = (short) pop();
+        ram[0] = (short) (ram[2] + 1);
+        for (int pointer = 4; pointer >= 1; pointer--) ram[pointer] = ram[address(frame - FRAME_SIZE + pointer)];
+
+        return returnAddresses.get(returnAddress);
+    }
+
+
+    /**
+     * Get the index of a label of the current function
+     */
+    private int label(String label) {
+        Integer index = targets.get(functionNames[pc] + "$" + label);
+        if (index == null) throw new IllegalStateException("Unknown label: " + label);
+        return index;
+    }
+
+
+    /**
+     * Read a value of a segment, statics of the current unit
+     */
+    private short read(Segment segment, int index) {
+        if (segment == Segment.CONSTANT) return (short) index;
+        if (segment == Segment.STATIC) return statics.getOrDefault(unitNames[pc] + "." + index, (short) 0);
+        return ram[segmentAddress(segment, index)];
+    }
+
+
+    /**
+     * Write a value to a segment, statics of the current unit
+     */
+    private void write(Segment segment, int index, int value) {
+        if (segment == Segment.STATIC) statics.put(unitNames[pc] + "." + index, (short) value);
+        else ram[segmentAddress(segment, index)] = (short) value;
+    }
+
+
+    /**
+     * Get the RAM address of an entry of a segment
+     */
+    private int segmentAddress(Segment segment, int index) {
+        switch (segment) {
+            case LOCAL: return address(ram[Token.LOCAL_BASE] + index);
+            case ARGUMENT: return address(ram[Token.ARGUMENT_BASE] + index);
+            case THIS: return address(ram[Token.THIS_BASE] + index);
+            case THAT: return address(ram[Token.THAT_BASE] + index);
+            case POINTER: return Token.POINTER_BASE + index;
+            case TEMP: return Token.TEMP_BASE + index;
+            default: throw new IllegalStateException("No address in segment " + segment.mnemonic);
+        }
+    }
+
+
+    /* STACK, values are 16 bit and addresses wrap around the RAM */
+    private void push(int value) {
+        ram[address(ram[0])] = (short) value;
+        ram[0]++;
+    }
+
+    private int pop() {
+        ram[0]--;
+        return ram[address(ram[0])];
+    }
+
+    private static int address(int value) { return value & (RAM_SIZE - 1); }
+
+
+    /* GETTERS AND SETTERS */
+    public short[] getRam() { return ram; }
+    public void setRam(short[] value) { ram = value.clone(); }
+
+    public Map<String, Short> getStatics() { return statics; }
+
+    public long getSteps() { return steps; }
+}
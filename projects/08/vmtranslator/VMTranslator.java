@@ -1,20 +1,23 @@
 package vmtranslator;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import vmtranslator.Token.Option;
 
 
 /**
@@ -22,20 +25,45 @@ import java.util.Map;
  * Translates VM-Instructions into Hack-Assembly
  * 
  * @author Sirat Ahmadi
- * @version 1.1
+ * @version 1.8
  */
 public class VMTranslator {
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("[Error] Execute: java VMTranslator [filename.vm | ./path/to/file/]");
+        boolean streaming = false;
+        String cacheDirectory = null;
+        String reportFilename = null;
+        int romBudget = -1;
+        EnumSet<Option> options = EnumSet.noneOf(Option.class);
+
+        // Options come before the filename
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-stream")) streaming = true;
+            else if (args[i].equals("-cache") && i + 1 < args.length - 1) cacheDirectory = args[++i];
+            else if (args[i].equals("-report") && i + 1 < args.length - 1) reportFilename = args[++i];
+            else if (args[i].equals("-rom-budget") && i + 1 < args.length - 1) romBudget = parseBudget(args[++i]);
+            else if (Token.OPTIONS.containsKey(args[i])) options.add(Token.OPTIONS.get(args[i]));
+            else usage();
+        }
+        if (args.length == 0) usage();
+
+        // Optimizations of a unit need all of its commands
+        for (Option option : options) {
+            if (streaming && option.wholeUnit) {
+                System.out.println("[Error] " + option.flag + " can not be combined with -stream");
+                System.exit(-1);
+            }
+        }
+        if (streaming && cacheDirectory != null) {
+            System.out.println("[Error] -cache can not be combined with -stream");
             System.exit(-1);
         }
     
         Map<String, String> pathComponents = new HashMap<>();
         boolean addSysInit = false;
+        File[] listOfFiles = null;
 
         // Trim trailing slash if it exists
-        String input = args[0].trim();
+        String input = args[args.length - 1].trim();
         if (input.endsWith(File.separator)) 
             input = input.substring(0, input.length());
 
@@ -55,14 +83,14 @@ public class VMTranslator {
         }
         else if (Files.isDirectory(inputPath)) {
             String dirName = inputPath.getFileName().toString();
-            // last part belongs to path, because merged-file belongs inside directory
+            // last part belongs to path, because the output-file belongs inside directory
             String dirPath = inputPath.toString();
 
             pathComponents.put("name", dirName);
             pathComponents.put("path", dirPath);
 
             // Get all .vm-files inside the directory
-            File[] listOfFiles = inputPath.toFile().listFiles(new FilenameFilter() {
+            listOfFiles = inputPath.toFile().listFiles(new FilenameFilter() {
                 @Override
                 public boolean accept(File dir, String name) {
                     return name.endsWith(".vm");
@@ -73,76 +101,271 @@ public class VMTranslator {
             // then add Sys.init in CodeWriter
             for (File f : listOfFiles)
                 if (f.getName().equals("Sys.vm")) addSysInit = true;
-            
-            // When only one file inside directory with the same name as directory,
-            // skip merge process
-            boolean shouldMerge = true;
-            if (listOfFiles.length == 1 && listOfFiles[0].getName().equals(dirName + ".vm")) 
-                shouldMerge = false;
-
-            // Merge all .vm-files into one, for CodeWriter to translate
-            if (shouldMerge) 
-                mergeFiles(listOfFiles, pathComponents.get("path"), pathComponents.get("name"), "vm");
         }
         else {
             System.out.println("[Error] Execution failed.");
             System.exit(-1);
         }
 
-        // Create a parser and parse through file
-        Parser parser = new Parser(pathComponents.get("name"), pathComponents.get("path"));
-        parser.parse();
+        // Every .vm-file is a translation unit with its own parser,
+        // the files are read directly, no merged file is written
+        ArrayList<Parser> parsers = new ArrayList<>();
+        if (listOfFiles == null) {
+            parsers.add(new Parser(pathComponents.get("name"), pathComponents.get("path")));
+        }
+        else {
+            for (File f : sortFiles(listOfFiles))
+                parsers.add(new Parser(f.getName(), pathComponents.get("path")));
+        }
+
+        // Translate every line as soon as it is read
+        if (streaming) {
+            checkCosts(stream(pathComponents, parsers, addSysInit, options), reportFilename, romBudget);
+            return;
+        }
+
+        // Take the translations of unchanged units from the cache
+        TranslationCache cache = null;
+        List<String> keys = null;
+        CodeWriter[] cachedUnits = new CodeWriter[parsers.size()];
+        if (cacheDirectory != null) {
+            try {
+                cache = new TranslationCache(cacheDirectory, options);
+                keys = cache.keys(parsers);
+            }
+            catch (IOException ex) {
+                System.out.println("[Error] Reading the cache failed.");
+                System.exit(-1);
+            }
+            for (int i = 0; i < parsers.size(); i++)
+                cachedUnits[i] = cache.load(keys.get(i), parsers.get(i).getUnitName());
+
+            // Optimizations of the whole program need every unit again
+            if (!cache.isUnitLocal() && Arrays.asList(cachedUnits).contains(null))
+                Arrays.fill(cachedUnits, null);
+
+            long reused = Arrays.stream(cachedUnits).filter(unit -> unit != null).count();
+            System.out.println("Reused " + reused + " of " + parsers.size() + " units from the cache");
+        }
+        boolean translating = Arrays.asList(cachedUnits).contains(null);
+
+        // Parse the units at the same time on the common ForkJoinPool,
+        // the order of the list stays the translation order
+        IntStream.range(0, parsers.size()).parallel()
+            .filter(i -> cachedUnits[i] == null)
+            .forEach(i -> parsers.get(i).parse());
+        List<CommandList> commands = parsers.stream().map(Parser::getCommands).collect(Collectors.toList());
+
+        // Optimizations of the whole program,
+        // functions inlined everywhere are dead afterwards
+        if (translating && (options.contains(Option.INLINE) || options.contains(Option.TAIL_CALLS))) {
+            commands = new CallOptimizer(
+                commands, options.contains(Option.INLINE), options.contains(Option.TAIL_CALLS)
+            ).optimize();
+        }
+        if (translating && options.contains(Option.ELIMINATE_DEAD))
+            commands = eliminateDeadFunctions(commands, options);
+
+        // Optimize and translate the units at the same time, every unit has
+        // its own labels, so the output is the same on every run
+        final List<CommandList> unitCommands = commands;
+        final TranslationCache unitCache = cache;
+        final List<String> unitKeys = keys;
+        List<CodeWriter> units = IntStream.range(0, parsers.size()).parallel()
+            .mapToObj(i -> {
+                if (cachedUnits[i] != null) return cachedUnits[i];
 
-        // Create a codeWriter and translate commands
+                String unitName = parsers.get(i).getUnitName();
+                CodeWriter unit = new CodeWriter(unitName, options);
+                unit.translateUnit(unitName, optimizeUnit(unitCommands.get(i), options));
+                if (unitCache != null) storeUnit(unitCache, unitKeys.get(i), unit);
+                return unit;
+            })
+            .collect(Collectors.toList());
+
+        // Create a codeWriter and splice the units together
         // then write to file
-        CodeWriter codeWriter = new CodeWriter(pathComponents.get("name"), pathComponents.get("path"), addSysInit);
-        codeWriter.translate(parser.getCommands());
+        CodeWriter codeWriter = new CodeWriter(
+            pathComponents.get("name"), pathComponents.get("path"), addSysInit, false, options
+        );
+        for (CodeWriter unit : units) codeWriter.append(unit);
+        codeWriter.writeEnd();
         codeWriter.writeToFile();
+
+        checkCosts(codeWriter, reportFilename, romBudget);
     }
 
 
     /**
-     * Merge all .vm-files into one
+     * Write the cost report and fail when the program is larger than the budget
      * 
-     * @param files Files with .vm-extension inside the directory
-     * @param path Directory-path of the new merged .vm file
-     * @param fileName Filename of the new merged .vm file
-     * @param extension .vm file-extension
+     * @param codeWriter CodeWriter of the whole program
+     * @param reportFilename Name of the report-file, null for no report
+     * @param romBudget Largest allowed number of instructions, -1 for no budget
      */
-    private static void mergeFiles(File[] files, String path, String fileName, String extension) {
-        ArrayList<File> vmFiles = new ArrayList<>(Arrays.asList(files));
-        String mergedPathAndName = path + File.separator + fileName + "." + extension;
-
-        File mergedFile = new File(mergedPathAndName);
-        try (BufferedWriter out = new BufferedWriter(new FileWriter(mergedFile))) { 
-            // First file to copy into the merged-file is Sys.vm,
-            // so we move it to the front of the list
-            for (int i = 0; i < vmFiles.size(); i++) {
-                if (vmFiles.get(i).getName().equals("Sys.vm")) {
-                    File sysFile = vmFiles.get(i);
-                    vmFiles.remove(i);
-                    vmFiles.add(0, sysFile);
-                }
+    private static void checkCosts(CodeWriter codeWriter, String reportFilename, int romBudget) {
+        if (reportFilename != null) {
+            try {
+                codeWriter.getCostReport().write(reportFilename);
+            }
+            catch (IOException ex) {
+                System.out.println("[Error] Writing to " + reportFilename + " failed.");
+                System.exit(-1);
             }
+        }
 
-            // Copy files into merge-file
-            for (File f : vmFiles) {                
-                BufferedReader in = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(f))
-                );
+        int instructions = codeWriter.getInstructionCount();
+        if (romBudget >= 0 && instructions > romBudget) {
+            System.out.println(
+                "[Error] The program has " + instructions + " instructions, the ROM budget is " + romBudget
+            );
+            System.exit(-1);
+        }
+    }
 
-                String line;
-                while ((line = in.readLine()) != null) {
-                    out.write(line);
-                    out.newLine();
-                }
 
-                in.close();
-            }
+    /**
+     * Parse the number of instructions of -rom-budget
+     */
+    private static int parseBudget(String budget) {
+        try {
+            return Integer.parseInt(budget);
+        }
+        catch (NumberFormatException ex) {
+            System.out.println("[Error] -rom-budget needs a number of instructions");
+            System.exit(-1);
+            return -1;
+        }
+    }
+
+
+    /**
+     * Apply the optimizations of a single unit
+     * 
+     * @param commands The commands of the unit
+     * @param options Code generation options
+     * @return The optimized commands
+     */
+    private static CommandList optimizeUnit(CommandList commands, Set<Option> options) {
+        if (options.contains(Option.OPTIMIZE))
+            commands = PeepholeOptimizer.optimize(commands);
+
+        // Exact gt and lt are kept for the shared routines
+        if (options.contains(Option.FUSE_BRANCHES))
+            commands = BranchFusion.fuse(commands, !options.contains(Option.SHARED_COMPARISONS));
+
+        return commands;
+    }
+
+
+    /**
+     * Store the translation of a unit in the cache
+     * 
+     * @param cache The translation cache
+     * @param key Key of the unit
+     * @param unit The unit CodeWriter after translation
+     */
+    private static void storeUnit(TranslationCache cache, String key, CodeWriter unit) {
+        try {
+            cache.store(key, unit);
         }
         catch (IOException ex) {
-            System.out.println("[Error] File-merge failed!");
+            System.out.println("[Error] Writing to the cache failed.");
             System.exit(-1);
         }
     }
+
+
+    /**
+     * Remove the functions not reachable from the entry of the program
+     * and print which functions were removed
+     * 
+     * @param units The commands of all units
+     * @param options Code generation options, to measure the removed code
+     * @return The commands of all units without dead functions
+     */
+    private static List<CommandList> eliminateDeadFunctions(List<CommandList> units, Set<Option> options) {
+        DeadFunctionEliminator eliminator = new DeadFunctionEliminator(units);
+        List<CommandList> liveUnits = eliminator.eliminate();
+
+        int removedInstructions = 0;
+        for (Map.Entry<String, CommandList> function : eliminator.getRemovedFunctions().entrySet()) {
+            CodeWriter codeWriter = new CodeWriter(function.getKey(), options);
+            codeWriter.translateUnit(function.getKey(), optimizeUnit(function.getValue(), options));
+            int instructions = codeWriter.getInstructionCount();
+
+            System.out.println("Removed " + function.getKey() + " (" + instructions + " instructions)");
+            removedInstructions += instructions;
+        }
+        System.out.println(
+            "Removed " + eliminator.getRemovedFunctions().size() + " functions, " +
+            removedInstructions + " instructions (" + (2 * removedInstructions) + " bytes)"
+        );
+
+        return liveUnits;
+    }
+
+
+    /**
+     * Parse, translate and write the program line by line,
+     * the memory used does not grow with the size of the program
+     * 
+     * @param pathComponents Name and path of the output-file
+     * @param parsers Parsers of the translation units in translation order
+     * @param addSysInit Call Sys.init at the beginning of the program
+     * @param options Code generation options
+     * @return The CodeWriter of the program
+     */
+    private static CodeWriter stream(
+        Map<String, String> pathComponents, ArrayList<Parser> parsers, boolean addSysInit, Set<Option> options
+    ) {
+        CodeWriter codeWriter = new CodeWriter(
+            pathComponents.get("name"), pathComponents.get("path"), addSysInit, true, options
+        );
+
+        for (Parser parser : parsers) {
+            codeWriter.beginUnit(parser.getUnitName());
+            parser.stream(codeWriter);
+        }
+
+        codeWriter.close();
+        return codeWriter;
+    }
+
+
+    /**
+     * Order the .vm-files of a directory for translation,
+     * Sys.vm comes first, the others by name
+     * 
+     * @param files Files with .vm-extension inside the directory
+     * @return The files in translation order
+     */
+    private static ArrayList<File> sortFiles(File[] files) {
+        ArrayList<File> vmFiles = new ArrayList<>(Arrays.asList(files));
+        vmFiles.sort(Comparator.comparing(File::getName));
+
+        // First file to translate is Sys.vm,
+        // so we move it to the front of the list
+        for (int i = 0; i < vmFiles.size(); i++) {
+            if (vmFiles.get(i).getName().equals("Sys.vm")) {
+                File sysFile = vmFiles.get(i);
+                vmFiles.remove(i);
+                vmFiles.add(0, sysFile);
+            }
+        }
+
+        return vmFiles;
+    }
+
+
+    /**
+     * Print the usage and exit
+     */
+    private static void usage() {
+        StringBuilder flags = new StringBuilder("[-stream] [-cache directory] [-report file.csv | file.json] [-rom-budget instructions]");
+        for (Option option : Option.values()) flags.append(" [").append(option.flag).append("]");
+
+        System.out.println("[Error] Execute: java VMTranslator " + flags + " [filename.vm | ./path/to/file/]");
+        System.exit(-1);
+    }
 }
\ No newline at end of file